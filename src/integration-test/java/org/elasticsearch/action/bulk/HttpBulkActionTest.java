@@ -0,0 +1,62 @@
+package org.elasticsearch.action.bulk;
+
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpBulkActionTest {
+
+    private final HttpBulkAction action = new HttpBulkAction(Settings.EMPTY);
+
+    @Test
+    public void testItems() throws IOException {
+        BulkResponse response = action.parseResponse(response(200, "{\"took\":7,\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_version\":1,\"status\":201," +
+                "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0}}}," +
+                "{\"delete\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"_version\":2,\"status\":404}}," +
+                "{\"create\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"3\",\"status\":409,\"error\":" +
+                "{\"type\":\"document_already_exists_exception\",\"reason\":\"document already exists\"}}}]}"));
+        assertEquals(7L, response.getTookInMillis());
+        assertTrue(response.hasFailures());
+        BulkItemResponse[] items = response.getItems();
+        assertEquals(3, items.length);
+        assertEquals("index", items[0].getOpType());
+        assertEquals(0, items[0].getItemId());
+        assertFalse(items[0].isFailed());
+        IndexResponse indexResponse = items[0].getResponse();
+        assertEquals("1", indexResponse.getId());
+        assertEquals(1L, indexResponse.getVersion());
+        assertTrue(indexResponse.isCreated());
+        DeleteResponse deleteResponse = items[1].getResponse();
+        assertEquals(2L, deleteResponse.getVersion());
+        assertFalse(deleteResponse.isFound());
+        assertTrue(items[2].isFailed());
+        assertEquals("3", items[2].getId());
+        assertTrue(items[2].getFailureMessage().contains("document already exists"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testError() throws IOException {
+        action.parseResponse(response(400, "{\"error\":\"ActionRequestValidationException[no requests added]\"," +
+                "\"status\":400}"));
+    }
+
+    private static HttpResponse response(int status, String content) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(status));
+        response.setContent(ChannelBuffers.copiedBuffer(content, CharsetUtil.UTF_8));
+        return response;
+    }
+}
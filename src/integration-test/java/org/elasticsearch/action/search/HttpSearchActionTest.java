@@ -0,0 +1,94 @@
+package org.elasticsearch.action.search;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.search.SearchHit;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpSearchActionTest {
+
+    private final HttpSearchAction action = new HttpSearchAction(Settings.EMPTY);
+
+    @Test
+    public void testHits() throws IOException {
+        SearchResponse response = action.parseResponse(response(200, "{\"took\":5,\"timed_out\":false," +
+                "\"_shards\":{\"total\":2,\"successful\":2,\"failed\":0}," +
+                "\"hits\":{\"total\":2,\"max_score\":1.5,\"hits\":[" +
+                "{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_score\":1.5,\"_source\":{\"name\":\"a\"}}," +
+                "{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"2\",\"_score\":null,\"_version\":3," +
+                "\"fields\":{\"tags\":[\"x\",\"y\"]}}]}}"));
+        assertEquals(5L, response.getTookInMillis());
+        assertEquals(2, response.getTotalShards());
+        assertEquals(2, response.getSuccessfulShards());
+        assertEquals(0, response.getShardFailures().length);
+        assertFalse(response.isTimedOut());
+        assertEquals(2L, response.getHits().getTotalHits());
+        assertEquals(1.5f, response.getHits().getMaxScore(), 0.0f);
+        SearchHit first = response.getHits().getAt(0);
+        assertEquals("test", first.getIndex());
+        assertEquals("doc", first.getType());
+        assertEquals("1", first.getId());
+        assertEquals("a", first.getSource().get("name"));
+        SearchHit second = response.getHits().getAt(1);
+        assertEquals("2", second.getId());
+        assertEquals(3L, second.getVersion());
+        assertEquals(2, second.field("tags").getValues().size());
+    }
+
+    @Test
+    public void testShardFailures() throws IOException {
+        SearchResponse response = action.parseResponse(response(200, "{\"took\":1,\"timed_out\":false," +
+                "\"_shards\":{\"total\":3,\"successful\":1,\"failed\":2,\"failures\":[" +
+                "{\"shard\":0,\"index\":\"test\",\"node\":\"n1\",\"reason\":" +
+                "{\"type\":\"query_parsing_exception\",\"reason\":\"no query\"}}," +
+                "{\"shard\":2,\"index\":\"test\",\"node\":null,\"reason\":\"shard not available\"}]}," +
+                "\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}"));
+        assertEquals(3, response.getTotalShards());
+        assertEquals(1, response.getSuccessfulShards());
+        assertEquals(2, response.getFailedShards());
+        ShardSearchFailure[] failures = response.getShardFailures();
+        assertEquals(2, failures.length);
+        assertEquals("test", failures[0].index());
+        assertEquals(0, failures[0].shardId());
+        assertEquals("n1", failures[0].shard().nodeId());
+        assertEquals("query_parsing_exception[no query]", failures[0].reason());
+        assertEquals(2, failures[1].shardId());
+        assertNull(failures[1].shard().nodeIdText());
+        assertEquals("shard not available", failures[1].reason());
+        assertEquals(0, response.getHits().getHits().length);
+    }
+
+    @Test
+    public void testScroll() throws IOException {
+        SearchResponse response = action.parseResponse(response(200, "{\"_scroll_id\":\"abc\",\"took\":1," +
+                "\"timed_out\":true,\"terminated_early\":true,\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}," +
+                "\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]},\"aggregations\":{\"a\":{\"value\":1}}}"));
+        assertEquals("abc", response.getScrollId());
+        assertTrue(response.isTimedOut());
+        assertTrue(response.isTerminatedEarly());
+    }
+
+    @Test(expected = IOException.class)
+    public void testError() throws IOException {
+        action.parseResponse(response(400, "{\"error\":{\"type\":\"index_not_found_exception\"," +
+                "\"reason\":\"no such index\"},\"status\":404}"));
+    }
+
+    private static HttpResponse response(int status, String content) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(status));
+        response.setContent(ChannelBuffers.copiedBuffer(content, CharsetUtil.UTF_8));
+        return response;
+    }
+}
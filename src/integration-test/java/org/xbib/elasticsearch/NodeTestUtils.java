@@ -138,6 +138,10 @@ public class NodeTestUtils {
         return clients.get(id);
     }
 
+    public Node node(String id) {
+        return nodes.get(id);
+    }
+
     private void closeNodes() throws IOException {
         logger.info("closing all clients");
         for (AbstractClient client : clients.values()) {
@@ -6,11 +6,18 @@ import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.junit.Test;
 import org.xbib.elasticsearch.action.ingest.IngestAction;
+import org.xbib.elasticsearch.action.ingest.IngestRequest;
 import org.xbib.elasticsearch.action.ingest.IngestRequestBuilder;
 import org.xbib.elasticsearch.NodeTestUtils;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class IngestRequestTest extends NodeTestUtils {
 
     @Test(expected = ActionRequestValidationException.class)
@@ -47,4 +54,66 @@ public class IngestRequestTest extends NodeTestUtils {
         client.execute(IngestAction.INSTANCE, builder.request()).actionGet();
     }
 
+    @Test
+    public void testTake() {
+        IngestRequest ingestRequest = new IngestRequest();
+        for (int i = 0; i < 1000; i++) {
+            ingestRequest.add(Requests.indexRequest("test").type("test").id(Integer.toString(i))
+                    .source("{\"name\":\"" + i + "\"}"));
+            ingestRequest.add(Requests.deleteRequest("test").type("test").id(Integer.toString(i)));
+        }
+        long size = ingestRequest.estimatedSizeInBytes();
+        IngestRequest part = ingestRequest.take(300);
+        assertEquals(300, part.numberOfActions());
+        assertEquals(1700, ingestRequest.numberOfActions());
+        IngestRequest rest = ingestRequest.takeAll();
+        assertEquals(1700, rest.numberOfActions());
+        assertEquals(0, ingestRequest.numberOfActions());
+        assertEquals(0L, ingestRequest.estimatedSizeInBytes());
+        assertEquals(size, part.estimatedSizeInBytes() + rest.estimatedSizeInBytes());
+    }
+
+    @Test
+    public void testChunkedParse() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"name\":\"").append(i).append("\"}\n")
+                    .append("{\"delete\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"").append(i).append("\"}}\n");
+        }
+        BytesReference data = new BytesArray(sb.toString());
+        int pos = 0;
+        int chunks = 0;
+        int actions = 0;
+        while (pos < data.length()) {
+            IngestRequest ingestRequest = new IngestRequest();
+            pos = ingestRequest.add(data, pos, null, null, 300, Long.MAX_VALUE);
+            if (ingestRequest.numberOfActions() == 0) {
+                break;
+            }
+            chunks++;
+            actions += ingestRequest.numberOfActions();
+        }
+        assertEquals(data.length(), pos);
+        assertEquals(7, chunks);
+        assertEquals(2000, actions);
+    }
+
+    @Test
+    public void testCompactWireFormat() throws Exception {
+        IngestRequest ingestRequest = new IngestRequest().compress(true);
+        for (int i = 0; i < 1000; i++) {
+            ingestRequest.add(Requests.indexRequest("test").type("test").id(Integer.toString(i))
+                    .source("{\"name\":\"" + i + "\"}"));
+            ingestRequest.add(Requests.deleteRequest("test").type("test").id(Integer.toString(i)));
+        }
+        BytesStreamOutput out = new BytesStreamOutput();
+        ingestRequest.writeTo(out);
+        IngestRequest copy = new IngestRequest();
+        copy.readFrom(out.bytes().streamInput());
+        assertTrue(copy.compress());
+        assertEquals(ingestRequest.numberOfActions(), copy.numberOfActions());
+        assertEquals(ingestRequest.estimatedSizeInBytes(), copy.estimatedSizeInBytes());
+    }
+
 }
@@ -0,0 +1,159 @@
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BackPressureTest {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(BackPressureTest.class.getName());
+
+    @Test
+    public void testReserveAndRelease() {
+        BackPressure backPressure = new BackPressure(new ByteSizeValue(100), BackPressure.Mode.FAIL, null);
+        assertTrue(backPressure.tryReserve(60));
+        assertTrue(backPressure.tryReserve(40));
+        assertFalse(backPressure.tryReserve(1));
+        assertEquals(100L, backPressure.getBytes());
+        backPressure.release(40);
+        assertEquals(60L, backPressure.getBytes());
+        backPressure.adjust(-10);
+        assertEquals(50L, backPressure.getBytes());
+        backPressure.adjust(20);
+        assertEquals(70L, backPressure.getBytes());
+        // releasing more than reserved does not go below zero
+        backPressure.release(1000);
+        assertEquals(0L, backPressure.getBytes());
+    }
+
+    @Test
+    public void testLargeRequestAdmittedWhenIdle() {
+        BackPressure backPressure = new BackPressure(new ByteSizeValue(100), BackPressure.Mode.FAIL, null);
+        assertTrue(backPressure.tryReserve(1000));
+        assertFalse(backPressure.tryReserve(1));
+        backPressure.release(1000);
+        assertTrue(backPressure.tryReserve(1));
+    }
+
+    @Test
+    public void testFailMode() {
+        BackPressure backPressure = new BackPressure(new ByteSizeValue(100), BackPressure.Mode.FAIL, null);
+        backPressure.reserve(100);
+        try {
+            backPressure.reserve(1);
+            fail("reservation over the budget must be rejected");
+        } catch (EsRejectedExecutionException e) {
+            logger.info("rejected: {}", e.getMessage());
+        }
+        assertEquals(100L, backPressure.getBytes());
+    }
+
+    @Test
+    public void testBlockModeTimeout() {
+        BackPressure backPressure = new BackPressure(new ByteSizeValue(100), BackPressure.Mode.BLOCK,
+                TimeValue.timeValueMillis(50));
+        backPressure.reserve(100);
+        long t0 = System.nanoTime();
+        try {
+            backPressure.reserve(1);
+            fail("reservation over the budget must time out");
+        } catch (EsRejectedExecutionException e) {
+            logger.info("rejected: {}", e.getMessage());
+        }
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testBlockModeWaitsForRelease() throws Exception {
+        final BackPressure backPressure = new BackPressure(new ByteSizeValue(100), BackPressure.Mode.BLOCK,
+                TimeValue.timeValueSeconds(10));
+        backPressure.reserve(100);
+        final CountDownLatch reserved = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                backPressure.reserve(50);
+                reserved.countDown();
+            }
+        };
+        producer.start();
+        assertFalse(reserved.await(100, TimeUnit.MILLISECONDS));
+        backPressure.release(100);
+        assertTrue(reserved.await(10, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(50L, backPressure.getBytes());
+    }
+
+    @Test
+    public void testEstimateSize() {
+        IndexRequest indexRequest = new IndexRequest("test", "test", "1").source("{\"name\":\"value\"}");
+        assertEquals(indexRequest.source().length() + 50L, BackPressure.estimateSize(indexRequest));
+        assertEquals(50L, BackPressure.estimateSize(new DeleteRequest("test", "test", "1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBudgetSmallerThanBulkSize() {
+        BulkProcessor.builder(client(), new NoOpListener())
+                .setBulkSize(new ByteSizeValue(5, ByteSizeUnit.MB))
+                .setBackPressure(new BackPressure(new ByteSizeValue(1, ByteSizeUnit.MB), BackPressure.Mode.FAIL, null))
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBudgetSmallerThanMaxBulkSizeOfPolicy() {
+        BulkProcessor.builder(client(), new NoOpListener())
+                .setBulkSize(new ByteSizeValue(1, ByteSizeUnit.MB))
+                .setBulkSizePolicy(new BulkSizePolicy(TimeValue.timeValueSeconds(1), new ByteSizeValue(1, ByteSizeUnit.MB),
+                        new ByteSizeValue(10, ByteSizeUnit.MB), new ByteSizeValue(1, ByteSizeUnit.MB)))
+                .setBackPressure(new BackPressure(new ByteSizeValue(5, ByteSizeUnit.MB), BackPressure.Mode.FAIL, null))
+                .build();
+    }
+
+    /**
+     * The builder validates its parameters before the client is used.
+     */
+    private static Client client() {
+        return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[]{Client.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static class NoOpListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        }
+    }
+}
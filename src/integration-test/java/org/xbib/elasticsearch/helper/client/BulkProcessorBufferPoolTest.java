@@ -0,0 +1,127 @@
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkProcessorBufferPoolTest extends NodeTestUtils {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(BulkProcessorBufferPoolTest.class.getName());
+
+    @Test
+    public void testPayloads() throws Exception {
+        final List<Object> payloads = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        BulkProcessor bulkProcessor = BulkProcessor.builder(client("1"), new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                for (BulkItemResponse itemResponse : response.getItems()) {
+                    if (itemResponse.isFailed()) {
+                        failures.add(new IllegalStateException(itemResponse.getFailureMessage()));
+                    }
+                }
+                List<Object> requestPayloads = request.payloads();
+                for (int i = 0; i < request.numberOfActions(); i++) {
+                    payloads.add(requestPayloads != null ? requestPayloads.get(i) : null);
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                failures.add(failure);
+            }
+        })
+                .setBulkActions(4)
+                .setBufferPool(new BytesBufferPool(2, 1024 * 1024))
+                .build();
+        try {
+            bulkProcessor.add(new IndexRequest("test", "test", "1").source("{\"name\":\"1\"}"), "p1");
+            bulkProcessor.add(new IndexRequest("test", "test", "2").source("{\"name\":\"2\"}"));
+            bulkProcessor.add(new IndexRequest("test", "test", "3").source("{\"name\":\"3\"}"), "p3");
+            bulkProcessor.add(new BytesArray("{\"index\":{\"_id\":\"4\"}}\n{\"name\":\"4\"}\n"
+                    + "{\"index\":{\"_id\":\"5\"}}\n{\"name\":\"5\"}\n"), "test", "test", "p45");
+            bulkProcessor.flush();
+        } finally {
+            assertTrue(bulkProcessor.awaitClose(30, TimeUnit.SECONDS));
+        }
+        logger.info("payloads = {}", payloads);
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(5, payloads.size());
+        assertEquals("p1", payloads.get(0));
+        assertEquals(null, payloads.get(1));
+        assertEquals("p3", payloads.get(2));
+        assertEquals("p45", payloads.get(3));
+        assertEquals("p45", payloads.get(4));
+    }
+
+    @Test
+    public void testUpdates() throws Exception {
+        final List<String> opTypes = Collections.synchronizedList(new ArrayList<String>());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        BulkProcessor bulkProcessor = BulkProcessor.builder(client("1"), new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                for (BulkItemResponse itemResponse : response.getItems()) {
+                    if (itemResponse.isFailed()) {
+                        failures.add(new IllegalStateException(itemResponse.getFailureMessage()));
+                    }
+                    opTypes.add(itemResponse.getOpType() + ":" + itemResponse.getId());
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                failures.add(failure);
+            }
+        })
+                .setBulkActions(5)
+                .setBufferPool(new BytesBufferPool(2, 1024 * 1024))
+                .build();
+        try {
+            // update requests are not encoded, they are sent in their position between the encoded requests
+            bulkProcessor.add(new UpdateRequest("test", "test", "0").doc("{\"name\":\"0\"}").docAsUpsert(true));
+            bulkProcessor.add(new IndexRequest("test", "test", "1").source("{\"name\":\"1\"}"));
+            bulkProcessor.add(new UpdateRequest("test", "test", "1").doc("{\"value\":\"1\"}"), "p1");
+            bulkProcessor.add(new IndexRequest("test", "test", "2").source("{\"name\":\"2\"}"));
+            bulkProcessor.add(new DeleteRequest("test", "test", "2"));
+            bulkProcessor.flush();
+        } finally {
+            assertTrue(bulkProcessor.awaitClose(30, TimeUnit.SECONDS));
+        }
+        logger.info("op types = {}", opTypes);
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(Arrays.asList("update:0", "index:1", "update:1", "index:2", "delete:2"), opTypes);
+        Map<String, Object> source = client("1").prepareGet("test", "test", "1").execute().actionGet().getSourceAsMap();
+        assertEquals("1", source.get("name"));
+        assertEquals("1", source.get("value"));
+        assertTrue(client("1").prepareGet("test", "test", "0").execute().actionGet().isExists());
+        assertFalse(client("1").prepareGet("test", "test", "2").execute().actionGet().isExists());
+    }
+}
@@ -0,0 +1,217 @@
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkRetryPolicyTest {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(BulkRetryPolicyTest.class.getName());
+
+    private ThreadPool threadPool;
+
+    @Before
+    public void startThreadPool() {
+        threadPool = new ThreadPool("test");
+    }
+
+    @After
+    public void stopThreadPool() {
+        ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDelay() {
+        BulkRetryPolicy policy = new BulkRetryPolicy(TimeValue.timeValueMillis(100), TimeValue.timeValueMillis(1000), 5, 100);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delay(0).millis();
+            assertTrue(delay >= 50L && delay <= 100L);
+            delay = policy.delay(2).millis();
+            assertTrue(delay >= 200L && delay <= 400L);
+            // capped by the maximum delay
+            delay = policy.delay(10).millis();
+            assertTrue(delay >= 500L && delay <= 1000L);
+            delay = policy.delay(100).millis();
+            assertTrue(delay >= 500L && delay <= 1000L);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelays() {
+        new BulkRetryPolicy(TimeValue.timeValueMillis(100), TimeValue.timeValueMillis(10), 5, 100);
+    }
+
+    @Test
+    public void testRetryBudget() {
+        BulkRetryPolicy policy = new BulkRetryPolicy(TimeValue.timeValueMillis(100), TimeValue.timeValueMillis(1000), 5, 10);
+        assertTrue(policy.tryAcquire(6));
+        assertFalse(policy.tryAcquire(5));
+        assertTrue(policy.tryAcquire(4));
+        assertEquals(10, policy.getPending());
+        policy.release(6);
+        assertEquals(4, policy.getPending());
+        assertTrue(policy.tryAcquire(6));
+    }
+
+    @Test
+    public void testIsRejected() {
+        assertTrue(BulkRetryPolicy.isRejected(rejected(0, "0")));
+        assertFalse(BulkRetryPolicy.isRejected(new BulkItemResponse(0, "index",
+                new BulkItemResponse.Failure("test", "test", "0", new IllegalArgumentException("bad request")))));
+        assertFalse(BulkRetryPolicy.isRejected(indexed(0, "0")));
+    }
+
+    @Test
+    public void testSyncRetry() throws Exception {
+        testRetry(0);
+    }
+
+    @Test
+    public void testAsyncRetry() throws Exception {
+        testRetry(1);
+    }
+
+    /**
+     * The first attempt rejects the second item, the retry succeeds. The listener receives the merged response once,
+     * and the bulk size policy sees the round trips without the delay before the retry.
+     */
+    private void testRetry(int concurrentRequests) throws Exception {
+        BulkRequest bulkRequest = new BulkRequest()
+                .add(new IndexRequest("test", "test", "0").source("{\"name\":\"0\"}"))
+                .add(new IndexRequest("test", "test", "1").source("{\"name\":\"1\"}"));
+        long requestBytes = bulkRequest.estimatedSizeInBytes();
+        final AtomicInteger attempts = new AtomicInteger();
+        Client client = client(new Responder() {
+            @Override
+            public BulkResponse respond(BulkRequest request) throws InterruptedException {
+                Thread.sleep(10L);
+                BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+                for (int i = 0; i < items.length; i++) {
+                    String id = ((IndexRequest) request.requests().get(i)).id();
+                    items[i] = attempts.get() == 0 && i == 1 ? rejected(i, id) : indexed(i, id);
+                }
+                attempts.incrementAndGet();
+                return new BulkResponse(items, 0L);
+            }
+        });
+        final AtomicReference<Object> result = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        // a retry delay far over the target latency, the bulk size grows only if the delay is not measured
+        BulkRetryPolicy retryPolicy = new BulkRetryPolicy(TimeValue.timeValueMillis(400), TimeValue.timeValueMillis(400), 3, 100);
+        BulkSizePolicy bulkSizePolicy = new BulkSizePolicy(TimeValue.timeValueMillis(100), new ByteSizeValue(1),
+                new ByteSizeValue(1024 * 1024), new ByteSizeValue(requestBytes));
+        BulkProcessor bulkProcessor = BulkProcessor.builder(client, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                result.set(response);
+                latch.countDown();
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                result.set(failure);
+                latch.countDown();
+            }
+        })
+                .setConcurrentRequests(concurrentRequests)
+                .setBulkActions(2)
+                .setBulkSizePolicy(bulkSizePolicy)
+                .setRetryPolicy(retryPolicy)
+                .build();
+        try {
+            for (int i = 0; i < bulkRequest.numberOfActions(); i++) {
+                bulkProcessor.add(bulkRequest.requests().get(i));
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            assertTrue(bulkProcessor.awaitClose(10, TimeUnit.SECONDS));
+        }
+        logger.info("attempts = {}, bulk size policy = {}", attempts.get(), bulkSizePolicy);
+        assertTrue(String.valueOf(result.get()), result.get() instanceof BulkResponse);
+        BulkResponse response = (BulkResponse) result.get();
+        assertFalse(response.buildFailureMessage(), response.hasFailures());
+        assertEquals(2, response.getItems().length);
+        assertEquals(1, response.getItems()[1].getItemId());
+        assertEquals("1", response.getItems()[1].getId());
+        assertEquals(2, attempts.get());
+        assertEquals(0, retryPolicy.getPending());
+        assertTrue(bulkSizePolicy.getBulkSize() > requestBytes);
+    }
+
+    private static BulkItemResponse rejected(int itemId, String id) {
+        return new BulkItemResponse(itemId, "index", new BulkItemResponse.Failure("test", "test", id,
+                new EsRejectedExecutionException("rejected")));
+    }
+
+    private static BulkItemResponse indexed(int itemId, String id) {
+        return new BulkItemResponse(itemId, "index", new IndexResponse("test", "test", id, 1L, true));
+    }
+
+    interface Responder {
+        BulkResponse respond(BulkRequest request) throws Exception;
+    }
+
+    /**
+     * A client which answers bulk requests by a responder, synchronously or by a listener.
+     */
+    private Client client(final Responder responder) {
+        return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[]{Client.class},
+                new InvocationHandler() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("threadPool".equals(method.getName())) {
+                            return threadPool;
+                        }
+                        if ("execute".equals(method.getName()) && args.length == 2) {
+                            PlainActionFuture<BulkResponse> future = PlainActionFuture.newFuture();
+                            future.onResponse(responder.respond((BulkRequest) args[1]));
+                            return future;
+                        }
+                        if ("execute".equals(method.getName()) && args.length == 3) {
+                            ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) args[2];
+                            BulkResponse response;
+                            try {
+                                response = responder.respond((BulkRequest) args[1]);
+                            } catch (Exception e) {
+                                listener.onFailure(e);
+                                return null;
+                            }
+                            listener.onResponse(response);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,94 @@
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkSizePolicyTest {
+
+    private static final long MIN = 1000L;
+
+    private static final long MAX = 1000000L;
+
+    private static BulkSizePolicy policy(long initial) {
+        return new BulkSizePolicy(TimeValue.timeValueMillis(100), new ByteSizeValue(MIN), new ByteSizeValue(MAX),
+                new ByteSizeValue(initial));
+    }
+
+    @Test
+    public void testInitialSizeIsClamped() {
+        assertEquals(MIN, policy(1L).getBulkSize());
+        assertEquals(MAX, policy(MAX * 10).getBulkSize());
+        assertEquals(MAX, policy(1L).getMaxBulkSize());
+    }
+
+    @Test
+    public void testGrowsWhenFasterThanTarget() {
+        BulkSizePolicy policy = policy(10000L);
+        policy.onResponse(10000L, 10L, 20L);
+        assertTrue(policy.getBulkSize() > 10000L);
+    }
+
+    @Test
+    public void testShrinksWhenSlowerThanTarget() {
+        BulkSizePolicy policy = policy(10000L);
+        policy.onResponse(10000L, 400L, 500L);
+        assertTrue(policy.getBulkSize() < 10000L);
+    }
+
+    @Test
+    public void testUsesLargerOfTookAndRoundTrip() {
+        BulkSizePolicy serverSlow = policy(10000L);
+        serverSlow.onResponse(10000L, 500L, 10L);
+        BulkSizePolicy clientSlow = policy(10000L);
+        clientSlow.onResponse(10000L, 10L, 500L);
+        assertEquals(serverSlow.getBulkSize(), clientSlow.getBulkSize());
+        assertTrue(serverSlow.getBulkSize() < 10000L);
+    }
+
+    @Test
+    public void testConvergesToTarget() {
+        // a cluster transferring 100 bytes per millisecond, the target of 100ms is met at 10000 bytes
+        BulkSizePolicy policy = policy(MIN);
+        for (int i = 0; i < 100; i++) {
+            long size = policy.getBulkSize();
+            policy.onResponse(size, size / 100L, size / 100L);
+        }
+        assertTrue(String.valueOf(policy.getBulkSize()), Math.abs(policy.getBulkSize() - 10000L) < 500L);
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        BulkSizePolicy policy = policy(10000L);
+        for (int i = 0; i < 100; i++) {
+            policy.onResponse(policy.getBulkSize(), 0L, 0L);
+        }
+        assertEquals(MAX, policy.getBulkSize());
+        for (int i = 0; i < 100; i++) {
+            policy.onResponse(policy.getBulkSize(), 100000L, 100000L);
+        }
+        assertEquals(MIN, policy.getBulkSize());
+    }
+
+    @Test
+    public void testEmptyRequestIsIgnored() {
+        BulkSizePolicy policy = policy(10000L);
+        policy.onResponse(0L, 1000L, 1000L);
+        assertEquals(10000L, policy.getBulkSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new BulkSizePolicy(TimeValue.timeValueMillis(100), new ByteSizeValue(MAX), new ByteSizeValue(MIN),
+                new ByteSizeValue(MIN));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTargetLatency() {
+        new BulkSizePolicy(TimeValue.timeValueMillis(0), new ByteSizeValue(MIN), new ByteSizeValue(MAX),
+                new ByteSizeValue(MIN));
+    }
+}
@@ -0,0 +1,157 @@
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.transport.RemoteTransportException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testFixedLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        assertFalse(limiter.isAdaptive());
+        limiter.acquire();
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        assertEquals(2, limiter.getInFlight());
+        limiter.release(RTT, true);
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        limiter.release();
+        limiter.release();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        thread.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        thread.join();
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testAwaitIdle() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        assertTrue(limiter.awaitIdle(0, TimeUnit.MILLISECONDS));
+        limiter.acquire();
+        assertFalse(limiter.awaitIdle(10, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(limiter.awaitIdle(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAdaptiveGrowsWhileUsed() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(2, 1, 8);
+        assertTrue(limiter.isAdaptive());
+        for (int i = 0; i < 100; i++) {
+            int limit = limiter.getLimit();
+            for (int j = 0; j < limit; j++) {
+                limiter.acquire();
+            }
+            for (int j = 0; j < limit; j++) {
+                limiter.release(RTT, false);
+            }
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testAdaptiveDoesNotGrowWhenUnused() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(4, 1, 8);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(RTT, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testAdaptiveDecreasesOnRejection() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(8, 2, 8);
+        limiter.acquire();
+        limiter.release(TimeUnit.SECONDS.toNanos(1), true);
+        assertEquals(6, limiter.getLimit());
+        // responses of the same congestion phase decrease only once
+        limiter.acquire();
+        limiter.release(TimeUnit.SECONDS.toNanos(1), true);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void testAdaptiveDecreasesOnSlowRoundTrip() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(8, 2, 8);
+        limiter.acquire();
+        limiter.release(RTT, false);
+        assertEquals(8, limiter.getLimit());
+        Thread.sleep(10L);
+        limiter.acquire();
+        limiter.release(RTT * 10, false);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void testAdaptiveStaysAboveMinimum() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(8, 2, 8);
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.release(RTT, true);
+            Thread.sleep(2L);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testRejections() {
+        assertTrue(ConcurrencyLimiter.isRejection(new EsRejectedExecutionException("rejected")));
+        assertTrue(ConcurrencyLimiter.isRejection(new RemoteTransportException("remote",
+                new EsRejectedExecutionException("rejected"))));
+        assertFalse(ConcurrencyLimiter.isRejection(new IllegalStateException("failed")));
+        BulkItemResponse indexed = new BulkItemResponse(0, "index", new IndexResponse("test", "test", "0", 1L, true));
+        BulkItemResponse rejected = new BulkItemResponse(1, "index", new BulkItemResponse.Failure("test", "test", "1",
+                new EsRejectedExecutionException("rejected")));
+        BulkItemResponse failed = new BulkItemResponse(1, "index", new BulkItemResponse.Failure("test", "test", "1",
+                new IllegalArgumentException("bad request")));
+        assertFalse(ConcurrencyLimiter.hasRejections(new BulkResponse(new BulkItemResponse[]{indexed}, 1L)));
+        assertFalse(ConcurrencyLimiter.hasRejections(new BulkResponse(new BulkItemResponse[]{indexed, failed}, 1L)));
+        assertTrue(ConcurrencyLimiter.hasRejections(new BulkResponse(new BulkItemResponse[]{indexed, rejected}, 1L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        ConcurrencyLimiter.adaptive(4, 8, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBackoffRatio() {
+        ConcurrencyLimiter.adaptive(4, 1, 8, 1.5d, 2.0d);
+    }
+}
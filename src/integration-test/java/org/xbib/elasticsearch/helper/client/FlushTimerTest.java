@@ -0,0 +1,183 @@
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FlushTimerTest {
+
+    private FlushTimer flushTimer;
+
+    private ExecutorService executor;
+
+    @Before
+    public void startTimer() {
+        flushTimer = new FlushTimer(TimeValue.timeValueMillis(10), 64);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void stopTimer() {
+        flushTimer.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testShared() {
+        assertSame(FlushTimer.shared(), FlushTimer.shared());
+    }
+
+    @Test
+    public void testPeriodicExecution() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, TimeValue.timeValueMillis(20), executor);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        registration.cancel();
+        assertTrue(registration.isCancelled());
+    }
+
+    @Test
+    public void testExecutionOnTimerThread() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, TimeValue.timeValueMillis(20), null);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        registration.cancel();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        }, TimeValue.timeValueMillis(20), executor);
+        Thread.sleep(100L);
+        registration.cancel();
+        // an execution dispatched before the cancellation may still complete
+        Thread.sleep(50L);
+        int n = count.get();
+        Thread.sleep(200L);
+        assertEquals(n, count.get());
+    }
+
+    @Test
+    public void testExecutionsDoNotOverlap() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(3);
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                try {
+                    // a flush slower than the interval
+                    Thread.sleep(50L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                    latch.countDown();
+                }
+            }
+        }, TimeValue.timeValueMillis(10), executor);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        registration.cancel();
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    public void testFailingTaskIsRescheduled() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+                throw new IllegalStateException("flush failed");
+            }
+        }, TimeValue.timeValueMillis(20), executor);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        registration.cancel();
+    }
+
+    @Test
+    public void testRejectedExecutionCancels() throws Exception {
+        final CountDownLatch rejected = new CountDownLatch(1);
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeValue.timeValueMillis(20), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                rejected.countDown();
+                throw new RejectedExecutionException("shut down");
+            }
+        });
+        assertTrue(rejected.await(10, TimeUnit.SECONDS));
+        // the registration is cancelled by the timer thread after the executor threw
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!registration.isCancelled() && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(registration.isCancelled());
+    }
+
+    @Test
+    public void testClosedTimerCancels() {
+        flushTimer.close();
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeValue.timeValueMillis(20), executor);
+        assertTrue(registration.isCancelled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval() {
+        flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeValue.timeValueMillis(0), executor);
+    }
+
+    @Test
+    public void testNotCancelledByDefault() {
+        FlushTimer.Registration registration = flushTimer.register(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeValue.timeValueSeconds(60), executor);
+        assertFalse(registration.isCancelled());
+        registration.cancel();
+    }
+}
@@ -0,0 +1,189 @@
+package org.xbib.elasticsearch.helper.client.http;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.common.settings.Settings;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.action.support.PlainActionFuture.newFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpChannelPoolTest {
+
+    private final static ChannelPipelineFactory EMPTY = new ChannelPipelineFactory() {
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            return Channels.pipeline();
+        }
+    };
+
+    private ServerBootstrap serverBootstrap;
+
+    private Channel serverChannel;
+
+    private ClientBootstrap bootstrap;
+
+    @Before
+    public void startServer() {
+        serverBootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        serverBootstrap.setPipelineFactory(EMPTY);
+        serverChannel = serverBootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+        bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        bootstrap.setPipelineFactory(EMPTY);
+    }
+
+    @After
+    public void stopServer() {
+        serverChannel.close().awaitUninterruptibly();
+        bootstrap.releaseExternalResources();
+        serverBootstrap.releaseExternalResources();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        HttpChannelPool pool = new HttpChannelPool(Settings.EMPTY, bootstrap);
+        try {
+            Channel first = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            pool.release(first);
+            Channel second = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            assertSame(first, second);
+            // the channel is busy, a new connection is opened
+            Channel third = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            assertNotSame(second, third);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        HttpChannelPool pool = new HttpChannelPool(Settings.settingsBuilder()
+                .put("http.client.maxconnections", 1)
+                .put("http.client.pipelining", 1)
+                .build(), bootstrap);
+        try {
+            Channel first = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            PlainActionFuture<Channel> waiting = acquire(pool, address());
+            assertFalse(waiting.isDone());
+            pool.release(first);
+            assertSame(first, waiting.get(10, TimeUnit.SECONDS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        HttpChannelPool pool = new HttpChannelPool(Settings.settingsBuilder()
+                .put("http.client.maxconnections", 1)
+                .put("http.client.pipelining", 2)
+                .build(), bootstrap);
+        try {
+            Channel first = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            Channel second = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            assertSame(first, second);
+            assertFalse(acquire(pool, address()).isDone());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPoolTimeout() throws Exception {
+        HttpChannelPool pool = new HttpChannelPool(Settings.settingsBuilder()
+                .put("http.client.maxconnections", 1)
+                .put("http.client.pipelining", 1)
+                .put("http.client.pooltimeout", "200ms")
+                .build(), bootstrap);
+        try {
+            acquire(pool, address()).get(10, TimeUnit.SECONDS);
+            try {
+                acquire(pool, address()).get(10, TimeUnit.SECONDS);
+                fail("timeout expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ElasticsearchTimeoutException);
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testConnectFailureServesWaiting() throws Exception {
+        InetSocketAddress address = address();
+        serverChannel.close().awaitUninterruptibly();
+        HttpChannelPool pool = new HttpChannelPool(Settings.settingsBuilder()
+                .put("http.client.maxconnections", 1)
+                .put("http.client.pooltimeout", 0)
+                .build(), bootstrap);
+        try {
+            PlainActionFuture<Channel> first = acquire(pool, address);
+            PlainActionFuture<Channel> second = acquire(pool, address);
+            assertConnectFailure(first);
+            // the waiting request is not left behind when the connection of the first request fails
+            assertConnectFailure(second);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        HttpChannelPool pool = new HttpChannelPool(Settings.settingsBuilder()
+                .put("http.client.maxconnections", 1)
+                .put("http.client.pipelining", 1)
+                .build(), bootstrap);
+        Channel channel = acquire(pool, address()).get(10, TimeUnit.SECONDS);
+        PlainActionFuture<Channel> waiting = acquire(pool, address());
+        pool.close();
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            fail("failure expected");
+        } catch (ExecutionException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        assertTrue(channel.getCloseFuture().awaitUninterruptibly(10, TimeUnit.SECONDS));
+    }
+
+    private static void assertConnectFailure(PlainActionFuture<Channel> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("connect failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private InetSocketAddress address() {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    private static PlainActionFuture<Channel> acquire(HttpChannelPool pool, InetSocketAddress address) {
+        PlainActionFuture<Channel> future = newFuture();
+        pool.acquire(address, future);
+        return future;
+    }
+}
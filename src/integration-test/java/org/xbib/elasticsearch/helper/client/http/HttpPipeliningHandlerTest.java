@@ -0,0 +1,153 @@
+package org.xbib.elasticsearch.helper.client.http;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.action.support.PlainActionFuture.newFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the pipelining handler over local channels, which pass HTTP messages as objects without a codec.
+ */
+public class HttpPipeliningHandlerTest {
+
+    private final LocalAddress address = new LocalAddress(LocalAddress.EPHEMERAL);
+
+    private final BlockingQueue<HttpInvocationContext> received = new LinkedBlockingQueue<>();
+
+    private volatile boolean answer = true;
+
+    private ServerBootstrap serverBootstrap;
+
+    private ClientBootstrap bootstrap;
+
+    @Before
+    public void start() {
+        serverBootstrap = new ServerBootstrap(new DefaultLocalServerChannelFactory());
+        serverBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+                        if (!answer) {
+                            return;
+                        }
+                        // answer in order, with the URI of the request as reason phrase
+                        HttpRequest request = (HttpRequest) e.getMessage();
+                        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
+                                new HttpResponseStatus(200, request.getUri()));
+                        e.getChannel().write(response);
+                    }
+                });
+            }
+        });
+        serverBootstrap.bind(address);
+        bootstrap = new ClientBootstrap(new DefaultLocalClientChannelFactory());
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new HttpPipeliningHandler(), new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+                        received.add((HttpInvocationContext) e.getMessage());
+                    }
+                });
+            }
+        });
+    }
+
+    @After
+    public void stop() {
+        bootstrap.releaseExternalResources();
+        serverBootstrap.releaseExternalResources();
+    }
+
+    @Test
+    public void testResponsesInOrder() throws Exception {
+        Channel channel = bootstrap.connect(address).awaitUninterruptibly().getChannel();
+        List<HttpInvocationContext<ActionRequest, ActionResponse>> contexts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            HttpInvocationContext<ActionRequest, ActionResponse> context = context("/" + i, null);
+            contexts.add(context);
+            channel.write(context);
+        }
+        for (int i = 0; i < 10; i++) {
+            HttpInvocationContext context = received.poll(10, TimeUnit.SECONDS);
+            assertSame(contexts.get(i), context);
+            assertEquals("/" + i, context.getHttpResponse().getStatus().getReasonPhrase());
+        }
+        channel.close().awaitUninterruptibly();
+    }
+
+    @Test
+    public void testPendingFailedOnClose() throws Exception {
+        answer = false;
+        Channel channel = bootstrap.connect(address).awaitUninterruptibly().getChannel();
+        PlainActionFuture<ActionResponse> first = newFuture();
+        PlainActionFuture<ActionResponse> second = newFuture();
+        channel.write(context("/1", first)).awaitUninterruptibly();
+        channel.write(context("/2", second)).awaitUninterruptibly();
+        assertFalse(first.isDone());
+        channel.close().awaitUninterruptibly();
+        assertClosed(first);
+        assertClosed(second);
+        // a context written after the close is failed at once
+        PlainActionFuture<ActionResponse> third = newFuture();
+        assertFalse(channel.write(context("/3", third)).awaitUninterruptibly().isSuccess());
+        assertClosed(third);
+        assertTrue(received.isEmpty());
+    }
+
+    private static HttpInvocationContext<ActionRequest, ActionResponse> context(String uri,
+                                                                               PlainActionFuture<ActionResponse> listener) {
+        HttpInvocationContext<ActionRequest, ActionResponse> context =
+                new HttpInvocationContext<>(null, listener, null, null);
+        context.httpRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+        return context;
+    }
+
+    private static void assertClosed(PlainActionFuture<ActionResponse> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.xbib.elasticsearch.helper.client.http;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpRequestCompressionTest {
+
+    private final static String CONTENT = "{\"query\":{\"match_all\":{}}}";
+
+    @Test
+    public void testCompressed() throws IOException {
+        TestAction action = new TestAction(Settings.settingsBuilder()
+                .put("http.client.compress", true)
+                .put("http.client.compress.threshold", "1b")
+                .build());
+        HttpRequest request = action.newPostRequest(new URL("http://localhost:9200"), "/_search", CONTENT);
+        assertEquals(HttpHeaders.Values.GZIP, request.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+        int length = request.getContent().readableBytes();
+        assertEquals(String.valueOf(length), request.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Streams.copy(new GZIPInputStream(new ChannelBufferInputStream(request.getContent().duplicate())), out);
+        assertEquals(CONTENT, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(length > 0);
+    }
+
+    @Test
+    public void testBelowThreshold() throws IOException {
+        TestAction action = new TestAction(Settings.settingsBuilder()
+                .put("http.client.compress", true)
+                .build());
+        HttpRequest request = action.newPostRequest(new URL("http://localhost:9200"), "/_search", CONTENT);
+        assertNull(request.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+        assertEquals(CONTENT, request.getContent().toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        TestAction action = new TestAction(Settings.settingsBuilder()
+                .put("http.client.compress.threshold", "1b")
+                .build());
+        HttpRequest request = action.newPostRequest(new URL("http://localhost:9200"), "/_search", CONTENT);
+        assertFalse(request.headers().contains(HttpHeaders.Names.CONTENT_ENCODING));
+        assertTrue(request.headers().contains(HttpHeaders.Names.ACCEPT_ENCODING));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new TestAction(Settings.settingsBuilder()
+                .put("http.client.compress.level", 10)
+                .build());
+    }
+
+    private static class TestAction extends HttpAction<SearchRequest, SearchResponse> {
+
+        TestAction(Settings settings) {
+            super(settings, "test");
+        }
+
+        @Override
+        protected HttpRequest createHttpRequest(URL base, SearchRequest request) {
+            return newRequest(HttpMethod.POST, base, "/_search", request.extraSource());
+        }
+
+        @Override
+        protected SearchResponse createResponse(HttpInvocationContext<SearchRequest, SearchResponse> httpInvocationContext) {
+            return null;
+        }
+    }
+}
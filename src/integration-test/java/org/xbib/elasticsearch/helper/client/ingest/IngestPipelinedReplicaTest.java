@@ -0,0 +1,107 @@
+package org.xbib.elasticsearch.helper.client.ingest;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.action.ingest.IngestAction;
+import org.xbib.elasticsearch.action.ingest.IngestRequest;
+import org.xbib.elasticsearch.action.ingest.IngestResponse;
+import org.xbib.elasticsearch.action.ingest.replica.IngestReplicaShardRequest;
+import org.xbib.elasticsearch.action.ingest.replica.IngestReplicaShardResponse;
+import org.xbib.elasticsearch.action.ingest.replica.TransportReplicaShardIngestAction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.common.settings.Settings.settingsBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the same document in consecutive sub-batches of a shard, which are replicated concurrently,
+ * and checks that the replica ends with the last write of the leader.
+ */
+public class IngestPipelinedReplicaTest extends NodeTestUtils {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(IngestPipelinedReplicaTest.class.getSimpleName());
+
+    private final static int WRITES = 100;
+
+    @Override
+    protected Settings getNodeSettings() {
+        return settingsBuilder()
+                .put(super.getNodeSettings())
+                .put("action.ingest.pipelined_batch_size", 2)
+                .build();
+    }
+
+    @Test
+    public void testSameIdInConsecutiveSubBatches() throws Exception {
+        startNode("2");
+        Client client = client("1");
+        client.admin().indices().create(new CreateIndexRequest("test").settings(settingsBuilder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 1)
+                .build())
+                // the leader does not update mappings, the type must be known before the document can be found
+                .mapping("test", "{\"test\":{\"properties\":{\"n\":{\"type\":\"long\"}}}}")).actionGet();
+        client.admin().cluster().health(new ClusterHealthRequest("test").waitForGreenStatus()).actionGet();
+        IngestRequest ingestRequest = new IngestRequest();
+        for (int i = 0; i < WRITES; i++) {
+            if (i % 10 == 5) {
+                ingestRequest.add(Requests.deleteRequest("test").type("test").id("1"));
+            } else {
+                ingestRequest.add(Requests.indexRequest("test").type("test").id("1")
+                        .source("{\"n\":" + i + "}"));
+            }
+        }
+        IngestResponse ingestResponse = client.execute(IngestAction.INSTANCE, ingestRequest).actionGet();
+        logger.info("success = {}, failures = {}", ingestResponse.successSize(), ingestResponse.getFailures());
+        assertTrue(ingestResponse.getFailures().isEmpty());
+        assertEquals(WRITES, ingestResponse.successSize());
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        GetResponse primary = client.get(new GetRequest("test", "test", "1").preference("_primary")).actionGet();
+        GetResponse replica = client.get(new GetRequest("test", "test", "1").preference("_replica")).actionGet();
+        logger.info("primary {} {} replica {} {}", primary.isExists(), primary.getVersion(), replica.isExists(), replica.getVersion());
+        assertTrue(primary.isExists());
+        assertTrue(replica.isExists());
+        assertEquals(WRITES, primary.getVersion());
+        assertEquals(primary.getVersion(), replica.getVersion());
+        assertEquals(WRITES - 1, replica.getSource().get("n"));
+
+        // a sub-batch which was overtaken by later sub-batches must not overwrite them on the replica
+        IndexRequest overtaken = Requests.indexRequest("test").type("test").id("1")
+                .source("{\"n\":" + (WRITES / 2) + "}")
+                .version(WRITES / 2)
+                .versionType(VersionType.INTERNAL.versionTypeForReplicationAndRecovery());
+        MetaData metaData = client.admin().cluster().prepareState().get().getState().metaData();
+        overtaken.process(metaData, metaData.index("test").mappingOrDefault("test"), false, "test");
+        List<ActionRequest<?>> actionRequests = new ArrayList<>();
+        actionRequests.add(overtaken);
+        TransportReplicaShardIngestAction replicaAction =
+                node("1").injector().getInstance(TransportReplicaShardIngestAction.class);
+        TransportReplicaShardIngestAction.ReplicaOperationResponse replicaResponse = replicaAction
+                .execute(new IngestReplicaShardRequest(0L, new ShardId("test", 0), actionRequests)).actionGet();
+        for (IngestReplicaShardResponse response : replicaResponse.responses()) {
+            assertTrue(response.getFailures().isEmpty());
+        }
+        client.admin().indices().refresh(new RefreshRequest("test")).actionGet();
+        replica = client.get(new GetRequest("test", "test", "1").preference("_replica")).actionGet();
+        assertEquals(WRITES, replica.getVersion());
+        assertEquals(WRITES - 1, replica.getSource().get("n"));
+    }
+}
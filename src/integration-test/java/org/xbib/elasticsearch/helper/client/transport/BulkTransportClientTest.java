@@ -1,6 +1,9 @@
 
 package org.xbib.elasticsearch.helper.client.transport;
 
+import org.elasticsearch.action.get.GetAction;
+import org.elasticsearch.action.get.GetRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchAction;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.client.transport.NoNodeAvailableException;
@@ -195,4 +198,151 @@ public class BulkTransportClientTest extends NodeTestUtils {
         }
     }
 
+    @Test
+    public void testThreadedStripedDocsBulkClient() throws Exception {
+        int maxthreads = Runtime.getRuntime().availableProcessors();
+        final long maxloop = NUM_ACTIONS;
+        final BulkTransportClient client = ClientBuilder.builder()
+                .put(getSettings())
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, MAX_ACTIONS)
+                .put(ClientBuilder.BULK_STRIPES, maxthreads)
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(60))
+                .setMetric(new LongAdderIngestMetric())
+                .toBulkTransportClient();
+        try {
+            client.newIndex("test");
+            ThreadPoolExecutor pool =
+                    EsExecutors.newFixed("bulkclient-test", maxthreads, 30, EsExecutors.daemonThreadFactory("bulkclient-test"));
+            final CountDownLatch latch = new CountDownLatch(maxthreads);
+            for (int i = 0; i < maxthreads; i++) {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < maxloop; i++) {
+                            client.index("test", "test", null, "{ \"name\" : \"" + randomString(32) + "\"}");
+                        }
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await(30, TimeUnit.SECONDS);
+            client.flushIngest();
+            client.waitForResponses(TimeValue.timeValueSeconds(30));
+            pool.shutdown();
+        } catch (NoNodeAvailableException e) {
+            logger.warn("skipping, no node available");
+        } finally {
+            assertEquals(maxthreads * maxloop, client.getMetric().getSucceeded().getCount());
+            if (client.hasThrowable()) {
+                logger.error("error", client.getThrowable());
+            }
+            assertFalse(client.hasThrowable());
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testPreserializedDocsBulkClient() throws Exception {
+        final BulkTransportClient client = ClientBuilder.builder()
+                .put(getSettings())
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, MAX_ACTIONS)
+                .put(ClientBuilder.BULK_PRESERIALIZE, true)
+                // concurrent bulk requests may overtake each other, the delete must follow the indexing
+                .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, 1)
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(60))
+                .setMetric(new LongAdderIngestMetric())
+                .toBulkTransportClient();
+        try {
+            client.newIndex("test");
+            for (int i = 0; i < NUM_ACTIONS; i++) {
+                client.index("test", "test", Integer.toString(i), "{ \"name\" : \"" + randomString(32) + "\"}");
+            }
+            client.delete("test", "test", "0");
+            client.flushIngest();
+            client.waitForResponses(TimeValue.timeValueSeconds(30));
+        } catch (NoNodeAvailableException e) {
+            logger.warn("skipping, no node available");
+        } finally {
+            assertEquals(NUM_ACTIONS + 1, client.getMetric().getSucceeded().getCount());
+            if (client.hasThrowable()) {
+                logger.error("error", client.getThrowable());
+            }
+            assertFalse(client.hasThrowable());
+            client.refreshIndex("test");
+            SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client.client(), SearchAction.INSTANCE)
+                    .setIndices("_all")
+                    .setQuery(QueryBuilders.matchAllQuery())
+                    .setSize(0);
+            assertEquals(NUM_ACTIONS - 1, searchRequestBuilder.execute().actionGet().getHits().getTotalHits());
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testShardPartitionedDocsBulkClient() throws Exception {
+        Settings settingsForIndex = Settings.settingsBuilder()
+                .put("index.number_of_shards", 3)
+                .put("index.number_of_replicas", 0)
+                .build();
+        final BulkTransportClient client = ClientBuilder.builder()
+                .put(getSettings())
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, MAX_ACTIONS)
+                .put(ClientBuilder.BULK_PARTITIONING, "shard")
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(60))
+                .setMetric(new LongAdderIngestMetric())
+                .toBulkTransportClient();
+        try {
+            client.newIndex("test", settingsForIndex, null);
+            for (int i = 0; i < NUM_ACTIONS; i++) {
+                client.index("test", "test", Integer.toString(i), "{ \"name\" : \"" + randomString(32) + "\"}");
+            }
+            client.flushIngest();
+            client.waitForResponses(TimeValue.timeValueSeconds(30));
+        } catch (NoNodeAvailableException e) {
+            logger.warn("skipping, no node available");
+        } finally {
+            assertEquals(NUM_ACTIONS.longValue(), client.getMetric().getSucceeded().getCount());
+            if (client.hasThrowable()) {
+                logger.error("error", client.getThrowable());
+            }
+            assertFalse(client.hasThrowable());
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testOrderedLanesBulkClient() throws Exception {
+        final BulkTransportClient client = ClientBuilder.builder()
+                .put(getSettings())
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, 10)
+                .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, 8)
+                .put(ClientBuilder.BULK_ORDERED_LANES, 4)
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(60))
+                .setMetric(new LongAdderIngestMetric())
+                .toBulkTransportClient();
+        try {
+            client.newIndex("test");
+            for (int i = 0; i < NUM_ACTIONS; i++) {
+                client.index("test", "test", Integer.toString(i % 10), "{ \"counter\" : " + i + "}");
+            }
+            client.flushIngest();
+            client.waitForResponses(TimeValue.timeValueSeconds(30));
+        } catch (NoNodeAvailableException e) {
+            logger.warn("skipping, no node available");
+        } finally {
+            assertEquals(NUM_ACTIONS.longValue(), client.getMetric().getSucceeded().getCount());
+            if (client.hasThrowable()) {
+                logger.error("error", client.getThrowable());
+            }
+            assertFalse(client.hasThrowable());
+            for (int i = 0; i < 10; i++) {
+                long last = NUM_ACTIONS - 10 + ((i - (NUM_ACTIONS - 10)) % 10 + 10) % 10;
+                GetResponse getResponse = new GetRequestBuilder(client.client(), GetAction.INSTANCE)
+                        .setIndex("test").setType("test").setId(Integer.toString(i))
+                        .execute().actionGet();
+                assertEquals(last, ((Number) getResponse.getSource().get("counter")).longValue());
+            }
+            client.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,173 @@
+package org.xbib.elasticsearch.rest.action.ingest;
+
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.settings.Settings.settingsBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class RestIngestActionTest extends NodeTestUtils {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(RestIngestActionTest.class.getName());
+
+    private static final int MAX_ACTIONS = 10;
+
+    private String httpAddress;
+
+    @Override
+    protected Settings getNodeSettings() {
+        return settingsBuilder()
+                .put(super.getNodeSettings())
+                .put("action.ingest.maxactions", MAX_ACTIONS)
+                .build();
+    }
+
+    @Before
+    public void startNodes() {
+        super.startNodes();
+        NodesInfoResponse response = client("1").admin().cluster()
+                .nodesInfo(new NodesInfoRequest().clear().http(true)).actionGet();
+        InetSocketTransportAddress address = (InetSocketTransportAddress) response.getNodes()[0]
+                .getHttp().getAddress().publishAddress();
+        httpAddress = "http://" + address.address().getHostString() + ":" + address.address().getPort();
+        client("1").admin().indices().prepareCreate("test").execute().actionGet();
+        client("1").admin().cluster().prepareHealth("test").setWaitForGreenStatus().execute().actionGet();
+    }
+
+    @Test
+    public void testWaitForCompletion() throws Exception {
+        Response response = post("/test/test/_ingest?wait_for_completion=true", docs(0, 25));
+        logger.info("response = {}", response.body);
+        assertEquals(200, response.status);
+        assertEquals(25, ((Number) response.body.get("succeeded")).intValue());
+        assertEquals(0, ((Number) response.body.get("failed")).intValue());
+        // chunks of at most MAX_ACTIONS actions
+        List<?> ids = (List<?>) response.body.get("ids");
+        assertEquals(3, ids.size());
+        assertEquals(ids.get(0), response.body.get("id"));
+        assertEquals(25L, count());
+    }
+
+    @Test
+    public void testSubmitWithoutWaiting() throws Exception {
+        Response response = post("/test/test/_ingest", docs(0, 25));
+        logger.info("response = {}", response.body);
+        assertEquals(200, response.status);
+        assertEquals(3, ((List<?>) response.body.get("ids")).size());
+        assertFalse(response.body.containsKey("succeeded"));
+        long deadline = System.currentTimeMillis() + 30000L;
+        while (count() < 25L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+        }
+        assertEquals(25L, count());
+    }
+
+    @Test
+    public void testActionsWithMetadata() throws Exception {
+        String body = "{\"index\":{\"_index\":\"test\",\"_type\":\"test\",\"_id\":\"1\",\"_routing\":\"r\"}}\n"
+                + "{\"name\":\"1\"}\n"
+                + "{\"create\":{\"_id\":\"2\"}}\n"
+                + "{\"name\":\"2\"}\n"
+                + "{\"index\":{\"_id\":\"3\",\"_version\":5,\"_version_type\":\"external\"}}\n"
+                + "{\"name\":\"3\"}\n"
+                + "{\"delete\":{\"_id\":\"2\"}}\n";
+        Response response = post("/test/test/_ingest?wait_for_completion=true", body);
+        logger.info("response = {}", response.body);
+        assertEquals(200, response.status);
+        assertEquals(4, ((Number) response.body.get("succeeded")).intValue());
+        assertEquals(0, ((Number) response.body.get("failed")).intValue());
+        // the documents are looked up by search, a realtime get needs the mapping of the type on the node
+        assertEquals(2L, count());
+        SearchHit[] hits = client("1").prepareSearch("test")
+                .setQuery(QueryBuilders.idsQuery("test").ids("1", "2", "3"))
+                .setVersion(true)
+                .execute().actionGet().getHits().getHits();
+        assertEquals(2, hits.length);
+        for (SearchHit hit : hits) {
+            if ("1".equals(hit.getId())) {
+                assertEquals("r", hit.field("_routing").getValue());
+            } else {
+                assertEquals("3", hit.getId());
+                assertEquals(5L, hit.getVersion());
+            }
+        }
+    }
+
+    @Test
+    public void testFailedActions() throws Exception {
+        assertEquals(200, post("/test/test/_ingest?wait_for_completion=true", docs(0, 1)).status);
+        String body = "{\"create\":{\"_id\":\"0\"}}\n{\"name\":\"0\"}\n";
+        Response response = post("/test/test/_ingest?wait_for_completion=true", body);
+        logger.info("response = {}", response.body);
+        assertEquals(200, response.status);
+        assertEquals(0, ((Number) response.body.get("succeeded")).intValue());
+        assertEquals(1, ((Number) response.body.get("failed")).intValue());
+        assertEquals(1, ((List<?>) response.body.get("failures")).size());
+    }
+
+    @Test
+    public void testMalformedBody() throws Exception {
+        Response response = post("/test/test/_ingest", "{\"index\":{\"_id\":\"1\"}}\n{\"name\":\"1\"}\n{ no json }\n");
+        logger.info("response = {}", response.body);
+        assertEquals(400, response.status);
+        assertNotNull(response.body.get("error"));
+    }
+
+    private static String docs(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            sb.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"name\":\"").append(i).append("\"}\n");
+        }
+        return sb.toString();
+    }
+
+    private long count() {
+        client("1").admin().indices().prepareRefresh("test").execute().actionGet();
+        return client("1").prepareSearch("test").setSize(0).execute().actionGet().getHits().getTotalHits();
+    }
+
+    private Response post(String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(httpAddress + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        try (InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            String content = Streams.copyToString(new InputStreamReader(in, StandardCharsets.UTF_8));
+            response.body = JsonXContent.jsonXContent.createParser(content).map();
+        }
+        return response;
+    }
+
+    private static class Response {
+        int status;
+        Map<String, Object> body;
+    }
+}
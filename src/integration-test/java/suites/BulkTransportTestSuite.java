@@ -2,6 +2,7 @@ package suites;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.xbib.elasticsearch.helper.client.BulkProcessorBufferPoolTest;
 import org.xbib.elasticsearch.helper.client.transport.BulkTransportClientTest;
 import org.xbib.elasticsearch.helper.client.transport.BulkTransportDuplicateIDTest;
 import org.xbib.elasticsearch.helper.client.transport.BulkTransportReplicaTest;
@@ -12,7 +13,8 @@ import org.xbib.elasticsearch.helper.client.transport.BulkTransportUpdateReplica
         BulkTransportClientTest.class,
         BulkTransportDuplicateIDTest.class,
         BulkTransportReplicaTest.class,
-        BulkTransportUpdateReplicaLevelTest.class
+        BulkTransportUpdateReplicaLevelTest.class,
+        BulkProcessorBufferPoolTest.class
 })
 public class BulkTransportTestSuite {
 
@@ -3,10 +3,16 @@ package suites;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.xbib.elasticsearch.helper.client.http.HttpBulkNodeClientTest;
+import org.xbib.elasticsearch.helper.client.http.HttpChannelPoolTest;
+import org.xbib.elasticsearch.helper.client.http.HttpPipeliningHandlerTest;
+import org.xbib.elasticsearch.helper.client.http.HttpRequestCompressionTest;
 
 @RunWith(ListenerSuite.class)
 @Suite.SuiteClasses({
-        HttpBulkNodeClientTest.class
+        HttpBulkNodeClientTest.class,
+        HttpChannelPoolTest.class,
+        HttpPipeliningHandlerTest.class,
+        HttpRequestCompressionTest.class
 })
 public class HttpBulkNodeTestSuite {
 
@@ -2,6 +2,7 @@ package suites;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.xbib.elasticsearch.helper.client.ingest.IngestPipelinedReplicaTest;
 import org.xbib.elasticsearch.helper.client.ingest.IngestTransportClientTest;
 import org.xbib.elasticsearch.helper.client.ingest.IngestTransportDuplicateIDTest;
 import org.xbib.elasticsearch.helper.client.ingest.IngestTransportReplicaTest;
@@ -12,7 +13,8 @@ import org.xbib.elasticsearch.helper.client.ingest.IngestTransportUpdateReplicaL
         IngestTransportClientTest.class,
         IngestTransportDuplicateIDTest.class,
         IngestTransportReplicaTest.class,
-        IngestTransportUpdateReplicaLevelTest.class
+        IngestTransportUpdateReplicaLevelTest.class,
+        IngestPipelinedReplicaTest.class
 })
 public class IngestTransportTestSuite {
 }
@@ -1,5 +1,7 @@
 package suites;
 
+import org.elasticsearch.action.bulk.HttpBulkActionTest;
+import org.elasticsearch.action.search.HttpSearchActionTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.xbib.elasticsearch.helper.AliasTest;
@@ -7,6 +9,12 @@ import org.xbib.elasticsearch.helper.IngestRequestTest;
 import org.xbib.elasticsearch.helper.SearchTest;
 import org.xbib.elasticsearch.helper.SimpleTest;
 import org.xbib.elasticsearch.helper.WildcardTest;
+import org.xbib.elasticsearch.helper.client.BackPressureTest;
+import org.xbib.elasticsearch.helper.client.BulkRetryPolicyTest;
+import org.xbib.elasticsearch.helper.client.BulkSizePolicyTest;
+import org.xbib.elasticsearch.helper.client.ConcurrencyLimiterTest;
+import org.xbib.elasticsearch.helper.client.FlushTimerTest;
+import org.xbib.elasticsearch.rest.action.ingest.RestIngestActionTest;
 
 @RunWith(ListenerSuite.class)
 @Suite.SuiteClasses({
@@ -14,7 +22,15 @@ import org.xbib.elasticsearch.helper.WildcardTest;
         AliasTest.class,
         IngestRequestTest.class,
         SearchTest.class,
-        WildcardTest.class
+        WildcardTest.class,
+        HttpBulkActionTest.class,
+        HttpSearchActionTest.class,
+        BackPressureTest.class,
+        BulkRetryPolicyTest.class,
+        BulkSizePolicyTest.class,
+        ConcurrencyLimiterTest.class,
+        FlushTimerTest.class,
+        RestIngestActionTest.class
 })
 public class MiscTestSuite {
 }
@@ -11,10 +11,17 @@ import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.bytes.ChannelBufferBytesReference;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.rest.RestStatus;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.xbib.elasticsearch.helper.client.BulkRequestEncoder;
 import org.xbib.elasticsearch.helper.client.http.HttpAction;
 import org.xbib.elasticsearch.helper.client.http.HttpInvocationContext;
 
@@ -22,7 +29,6 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class HttpBulkAction extends HttpAction<BulkRequest, BulkResponse> {
 
@@ -31,146 +37,162 @@ public class HttpBulkAction extends HttpAction<BulkRequest, BulkResponse> {
     }
 
     @Override
-    protected HttpRequest createHttpRequest(URL base, BulkRequest request) {
-        StringBuilder bulkContent = new StringBuilder();
+    protected HttpRequest createHttpRequest(URL base, BulkRequest request) throws IOException {
+        return newRequest(HttpMethod.POST, base, "/_bulk", encode(request));
+    }
+
+    /**
+     * Encode the bulk body. The action lines are written by a JSON generator into one buffer, and the sources
+     * are spliced in between as wrapped buffers, so the sources are neither copied nor decoded to strings.
+     */
+    private static ChannelBuffer encode(BulkRequest request) throws IOException {
+        ChannelBuffer lines = ChannelBuffers.dynamicBuffer(request.requests().size() * 128);
+        ChannelBufferOutputStream out = new ChannelBufferOutputStream(lines);
+        List<ChannelBuffer> buffers = new ArrayList<>();
+        int start = 0;
         for (ActionRequest actionRequest : request.requests()) {
             if (actionRequest instanceof IndexRequest) {
                 IndexRequest indexRequest = (IndexRequest) actionRequest;
-                bulkContent.append("{\"").append(indexRequest.opType().lowercase()).append("\":{");
-                bulkContent.append("\"_index\":\"").append(indexRequest.index()).append("\"");
-                bulkContent.append(",\"_type\":\"").append(indexRequest.type()).append("\"");
-                if (indexRequest.id() != null) {
-                    bulkContent.append(",\"_id\":\"").append(indexRequest.id()).append("\"");
-                }
-                if (indexRequest.routing() != null) {
-                    bulkContent.append(",\"_routing\":\"").append(indexRequest.routing()).append("\""); // _routing
-                }
-                if (indexRequest.parent() != null) {
-                    bulkContent.append(",\"_parent\":\"").append(indexRequest.parent()).append("\"");
-                }
-                if (indexRequest.timestamp() != null) {
-                    bulkContent.append(",\"_timestamp\":\"").append(indexRequest.timestamp()).append("\"");
-                }
-                // avoid _ttl <= 0 at all cost!
-                if (indexRequest.ttl() != null && indexRequest.ttl().seconds() > 0) {
-                    bulkContent.append(",\"_ttl\":\"").append(indexRequest.ttl()).append("\"");
-                }
-                if (indexRequest.version() > 0) {
-                    bulkContent.append(",\"_version\":\"").append(indexRequest.version()).append("\"");
-                    if (indexRequest.versionType() != null) {
-                        bulkContent.append(",\"_version_type\":\"").append(indexRequest.versionType().name()).append("\"");
-                    }
-                }
-                bulkContent.append("}}\n");
-                bulkContent.append(indexRequest.source().toUtf8());
-                bulkContent.append("\n");
+                BulkRequestEncoder.encodeAction(indexRequest, out);
+                // slices of a dynamic buffer remain valid when the buffer grows
+                buffers.add(lines.slice(start, lines.writerIndex() - start));
+                buffers.add(BulkRequestEncoder.source(indexRequest.source()).toChannelBuffer());
+                start = lines.writerIndex();
+                // the line break after the source starts the next slice
+                out.write('\n');
             } else if (actionRequest instanceof DeleteRequest) {
-                DeleteRequest deleteRequest = (DeleteRequest) actionRequest;
-                bulkContent.append("{\"delete\":{");
-                bulkContent.append("\"_index\":\"").append(deleteRequest.index()).append("\"");
-                bulkContent.append(",\"_type\":\"").append(deleteRequest.type()).append("\"");
-                bulkContent.append(",\"_id\":\"").append(deleteRequest.id()).append("\"");
-                if (deleteRequest.routing() != null) {
-                    bulkContent.append(",\"_routing\":\"").append(deleteRequest.routing()).append("\""); // _routing
-                }
-                bulkContent.append("}}\n");
+                BulkRequestEncoder.encode((DeleteRequest) actionRequest, out);
             }
         }
-        return newPostRequest(base, "/_bulk", bulkContent);
+        buffers.add(lines.slice(start, lines.writerIndex() - start));
+        return ChannelBuffers.wrappedBuffer(buffers.toArray(new ChannelBuffer[buffers.size()]));
     }
 
+    /**
+     * Parse the bulk response from the token stream, the items are built directly without intermediate maps.
+     */
     @Override
-    @SuppressWarnings("unchecked")
-    protected BulkResponse createResponse(HttpInvocationContext<BulkRequest,BulkResponse> httpInvocationContext) {
+    protected BulkResponse createResponse(HttpInvocationContext<BulkRequest,BulkResponse> httpInvocationContext) throws IOException {
         if (httpInvocationContext == null) {
             throw new IllegalStateException("no http context");
         }
-        HttpResponse httpResponse = httpInvocationContext.getHttpResponse();
-        try {
-            BytesReference ref = new ChannelBufferBytesReference(httpResponse.getContent());
-            Map<String,Object> map = JsonXContent.jsonXContent.createParser(ref).map();
-            long tookInMillis = map.containsKey("took") ? (Integer)map.get("took") : -1L;
-            BulkItemResponse[] responses = parseItems((List<Map<String,?>>)map.get("items"));
+        return parseResponse(httpInvocationContext.getHttpResponse());
+    }
+
+    BulkResponse parseResponse(HttpResponse httpResponse) throws IOException {
+        BytesReference ref = new ChannelBufferBytesReference(httpResponse.getContent());
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(ref)) {
+            long tookInMillis = -1L;
+            BulkItemResponse[] responses = null;
+            String error = null;
+            String currentFieldName = null;
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new IOException("malformed bulk response, status " + httpResponse.getStatus());
+            }
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT && token != null) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (ITEMS.equals(currentFieldName) && token == XContentParser.Token.START_ARRAY) {
+                    responses = parseItems(parser);
+                } else if (ERROR.equals(currentFieldName)) {
+                    error = parseError(parser);
+                } else if (TOOK.equals(currentFieldName) && token.isValue()) {
+                    tookInMillis = parser.longValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (responses == null) {
+                throw new IOException("bulk request failed, status " + httpResponse.getStatus() +
+                        (error != null ? ": " + error : ""));
+            }
             return new BulkResponse(responses, tookInMillis);
-        } catch (IOException e) {
-            //
         }
-        return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private BulkItemResponse[] parseItems(List<Map<String,?>> items) {
+    private BulkItemResponse[] parseItems(XContentParser parser) throws IOException {
         List<BulkItemResponse> list = new ArrayList<>();
-        int i = 0;
-        for (Map<String,?> item: items) {
-            if (item.containsKey(UPDATE_OP)) {
-                item = (Map<String,?>)item.get(UPDATE_OP);
-                String index = (String) item.get(INDEX);
-                String type = (String) item.get(TYPE);
-                String id = (String) item.get(ID);
-                if (item.containsKey(ERROR)) {
-                    ElasticsearchException e = new ElasticsearchException(item.get(ERROR).toString());
-                    BulkItemResponse.Failure failure = new BulkItemResponse.Failure(index, type, id, e);
-                    list.add(new BulkItemResponse(i++, UPDATE_OP, failure));
-                } else {
-                    UpdateResponse updateResponse = new UpdateResponse(index, type, id,
-                            item.containsKey(VERSION) ? (Integer) item.get(VERSION) : -1L,
-                            false);
-                    list.add(new BulkItemResponse(i++, UPDATE_OP, updateResponse));
-                }
-            } else if (item.containsKey(INDEX_OP)) {
-                item = (Map<String,?>)item.get(INDEX_OP);
-                String index = (String) item.get(INDEX);
-                String type = (String) item.get(TYPE);
-                String id = (String) item.get(ID);
-                if (item.containsKey(ERROR)) {
-                    ElasticsearchException e = new ElasticsearchException(item.get(ERROR).toString());
-                    BulkItemResponse.Failure failure = new BulkItemResponse.Failure(index, type, id, e);
-                    list.add(new BulkItemResponse(i++, INDEX_OP, failure));
-                } else {
-                    int status = (Integer) item.get(STATUS);
-                    IndexResponse indexResponse = new IndexResponse(index, type, id,
-                            item.containsKey(VERSION) ? (Integer) item.get(VERSION) : -1L,
-                            status == RestStatus.CREATED.getStatus());
-                    list.add(new BulkItemResponse(i++, INDEX_OP, indexResponse));
-                }
-            } else if (item.containsKey(CREATE_OP)) {
-                item = (Map<String,?>)item.get(CREATE_OP);
-                String index = (String) item.get(INDEX);
-                String type = (String) item.get(TYPE);
-                String id = (String) item.get(ID);
-                if (item.containsKey(ERROR)) {
-                    ElasticsearchException e = new ElasticsearchException(item.get(ERROR).toString());
-                    BulkItemResponse.Failure failure = new BulkItemResponse.Failure(index, type, id, e);
-                    list.add(new BulkItemResponse(i++, CREATE_OP, failure));
-                } else {
-                    int status = (Integer) item.get(STATUS);
-                    IndexResponse indexResponse = new IndexResponse(index, type, id,
-                            item.containsKey(VERSION) ? (Integer) item.get(VERSION) : -1L,
-                            status == RestStatus.CREATED.getStatus());
-                    list.add(new BulkItemResponse(i++, CREATE_OP, indexResponse));
-                }
-            } else if (item.containsKey(DELETE_OP)) {
-                item = (Map<String,?>)item.get(DELETE_OP);
-                String index = (String) item.get(INDEX);
-                String type = (String) item.get(TYPE);
-                String id = (String) item.get(ID);
-                if (item.containsKey(ERROR)) {
-                    ElasticsearchException e = new ElasticsearchException(item.get(ERROR).toString());
-                    BulkItemResponse.Failure failure = new BulkItemResponse.Failure(index, type, id, e);
-                    list.add(new BulkItemResponse(i++, DELETE_OP, failure));
-                } else {
-                    int status = (Integer) item.get(STATUS);
-                    DeleteResponse deleteResponse = new DeleteResponse(index, type, id,
-                            item.containsKey(VERSION) ? (Integer) item.get(VERSION) : -1L,
-                            status != RestStatus.NOT_FOUND.getStatus());
-                    list.add(new BulkItemResponse(i++, DELETE_OP, deleteResponse));
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token != XContentParser.Token.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            // each item is an object with the operation as single field
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    String opType = parser.currentName();
+                    if (parser.nextToken() == XContentParser.Token.START_OBJECT && isOpType(opType)) {
+                        list.add(parseItem(parser, list.size(), opType));
+                    } else {
+                        parser.skipChildren();
+                    }
                 }
             }
         }
         return list.toArray(new BulkItemResponse[list.size()]);
     }
 
+    private BulkItemResponse parseItem(XContentParser parser, int i, String opType) throws IOException {
+        String index = null;
+        String type = null;
+        String id = null;
+        long version = -1L;
+        int status = -1;
+        String error = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (ERROR.equals(currentFieldName)) {
+                error = parseError(parser);
+            } else if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+                parser.skipChildren();
+            } else if (INDEX.equals(currentFieldName)) {
+                index = parser.text();
+            } else if (TYPE.equals(currentFieldName)) {
+                type = parser.text();
+            } else if (ID.equals(currentFieldName)) {
+                id = parser.text();
+            } else if (VERSION.equals(currentFieldName)) {
+                version = parser.longValue();
+            } else if (STATUS.equals(currentFieldName)) {
+                status = parser.intValue();
+            }
+        }
+        if (error != null) {
+            ElasticsearchException e = new ElasticsearchException(error);
+            BulkItemResponse.Failure failure = new BulkItemResponse.Failure(index, type, id, e);
+            return new BulkItemResponse(i, opType, failure);
+        }
+        if (UPDATE_OP.equals(opType)) {
+            return new BulkItemResponse(i, opType, new UpdateResponse(index, type, id, version, false));
+        } else if (DELETE_OP.equals(opType)) {
+            return new BulkItemResponse(i, opType, new DeleteResponse(index, type, id, version,
+                    status != RestStatus.NOT_FOUND.getStatus()));
+        } else {
+            return new BulkItemResponse(i, opType, new IndexResponse(index, type, id, version,
+                    status == RestStatus.CREATED.getStatus()));
+        }
+    }
+
+    /**
+     * Errors are strings in older versions and objects with type and reason since 2.0.
+     */
+    private static String parseError(XContentParser parser) throws IOException {
+        if (parser.currentToken() == XContentParser.Token.START_OBJECT ||
+                parser.currentToken() == XContentParser.Token.START_ARRAY) {
+            return XContentFactory.jsonBuilder().copyCurrentStructure(parser).string();
+        }
+        return parser.text();
+    }
+
+    private static boolean isOpType(String opType) {
+        return INDEX_OP.equals(opType) || CREATE_OP.equals(opType) || DELETE_OP.equals(opType) || UPDATE_OP.equals(opType);
+    }
+
     private final static String INDEX = "_index";
     private final static String TYPE = "_type";
     private final static String ID = "_id";
@@ -181,5 +203,7 @@ public class HttpBulkAction extends HttpAction<BulkRequest, BulkResponse> {
     private final static String UPDATE_OP = "update";
     private final static String ERROR = "error";
     private final static String STATUS = "status";
+    private final static String TOOK = "took";
+    private final static String ITEMS = "items";
 
 }
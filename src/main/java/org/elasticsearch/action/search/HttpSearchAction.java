@@ -4,23 +4,27 @@ package org.elasticsearch.action.search;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.bytes.ChannelBufferBytesReference;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
-import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchShardTarget;
 import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHitField;
 import org.elasticsearch.search.internal.InternalSearchHits;
 import org.elasticsearch.search.internal.InternalSearchResponse;
-import org.elasticsearch.search.profile.InternalProfileShardResults;
-import org.elasticsearch.search.suggest.Suggest;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
-import org.jboss.netty.util.CharsetUtil;
 import org.xbib.elasticsearch.helper.client.http.HttpAction;
 import org.xbib.elasticsearch.helper.client.http.HttpInvocationContext;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,77 +40,240 @@ public class HttpSearchAction extends HttpAction<SearchRequest, SearchResponse>
         return newRequest(HttpMethod.POST, url, index + "/_search", request.extraSource());
     }
 
+    /**
+     * Parse the search response from the token stream, the hits are built directly without intermediate maps.
+     */
     @Override
-    @SuppressWarnings("unchecked")
     protected SearchResponse createResponse(HttpInvocationContext<SearchRequest,SearchResponse> httpInvocationContext) throws IOException {
         if (httpInvocationContext == null) {
             throw new IllegalStateException("no http context");
         }
-        HttpResponse httpResponse = httpInvocationContext.getHttpResponse();
-        logger.info("{}", httpResponse.getContent().toString(CharsetUtil.UTF_8));
+        return parseResponse(httpInvocationContext.getHttpResponse());
+    }
+
+    SearchResponse parseResponse(HttpResponse httpResponse) throws IOException {
         BytesReference ref = new ChannelBufferBytesReference(httpResponse.getContent());
-        Map<String,Object> map = JsonXContent.jsonXContent.createParser(ref).map();
-
-        logger.info("{}", map);
-
-        InternalSearchResponse internalSearchResponse = parseInternalSearchResponse(map);
-        String scrollId = (String)map.get(SCROLL_ID);
-        int totalShards = 0;
-        int successfulShards = 0;
-        if (map.containsKey(SHARDS)) {
-            Map<String,?> shards = (Map<String,?>)map.get(SHARDS);
-            totalShards =  shards.containsKey(TOTAL) ? (Integer)shards.get(TOTAL) : -1;
-            successfulShards =  shards.containsKey(SUCCESSFUL) ? (Integer)shards.get(SUCCESSFUL) : -1;
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(ref)) {
+            String scrollId = null;
+            long tookInMillis = -1L;
+            int totalShards = 0;
+            int successfulShards = 0;
+            ShardSearchFailure[] shardFailures = ShardSearchFailure.EMPTY_ARRAY;
+            boolean timedOut = false;
+            Boolean terminatedEarly = null;
+            InternalSearchHits internalSearchHits = InternalSearchHits.empty();
+            String currentFieldName = null;
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new IOException("malformed search response, status " + httpResponse.getStatus());
+            }
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT && token != null) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_OBJECT) {
+                    if (HITS.equals(currentFieldName)) {
+                        internalSearchHits = parseInternalSearchHits(parser);
+                    } else if (SHARDS.equals(currentFieldName)) {
+                        String shardsFieldName = null;
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                            if (token == XContentParser.Token.FIELD_NAME) {
+                                shardsFieldName = parser.currentName();
+                            } else if (TOTAL.equals(shardsFieldName) && token.isValue()) {
+                                totalShards = parser.intValue();
+                            } else if (SUCCESSFUL.equals(shardsFieldName) && token.isValue()) {
+                                successfulShards = parser.intValue();
+                            } else if (FAILURES.equals(shardsFieldName) && token == XContentParser.Token.START_ARRAY) {
+                                shardFailures = parseShardFailures(parser);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else if (ERROR.equals(currentFieldName)) {
+                        throw new IOException("search request failed, status " + httpResponse.getStatus() + ": " +
+                                XContentFactory.jsonBuilder().copyCurrentStructure(parser).string());
+                    } else {
+                        // aggregations and suggestions are not parsed
+                        parser.skipChildren();
+                    }
+                } else if (token == XContentParser.Token.START_ARRAY) {
+                    parser.skipChildren();
+                } else if (SCROLL_ID.equals(currentFieldName)) {
+                    scrollId = parser.text();
+                } else if (TOOK.equals(currentFieldName)) {
+                    tookInMillis = parser.longValue();
+                } else if (TIMED_OUT.equals(currentFieldName)) {
+                    timedOut = parser.booleanValue();
+                } else if (TERMINATED_EARLY.equals(currentFieldName)) {
+                    terminatedEarly = parser.booleanValue();
+                } else if (ERROR.equals(currentFieldName)) {
+                    throw new IOException("search request failed, status " + httpResponse.getStatus() + ": " +
+                            parser.text());
+                }
+            }
+            InternalSearchResponse internalSearchResponse = new InternalSearchResponse(internalSearchHits,
+                    null, null, null, timedOut, terminatedEarly);
+            return new SearchResponse(internalSearchResponse, scrollId, totalShards, successfulShards, tookInMillis,
+                    shardFailures);
         }
-        int tookInMillis = map.containsKey(TOOK) ? (Integer)map.get(TOOK) : -1;
-        ShardSearchFailure[] shardFailures = parseShardFailures(map);
-        return new SearchResponse(internalSearchResponse, scrollId, totalShards, successfulShards, tookInMillis, shardFailures);
     }
 
-    private InternalSearchResponse parseInternalSearchResponse(Map<String,?> map) {
-        InternalSearchHits internalSearchHits = parseInternalSearchHits(map);
-        InternalAggregations internalAggregations = parseInternalAggregations(map);
-        Suggest suggest = parseSuggest(map);
-        InternalProfileShardResults internalProfileShardResults = null;
-        Boolean timeout = false;
-        Boolean terminatedEarly = false;
-        return new InternalSearchResponse(internalSearchHits,
-                internalAggregations,
-                suggest,
-                internalProfileShardResults,
-                timeout,
-                terminatedEarly);
+    private ShardSearchFailure[] parseShardFailures(XContentParser parser) throws IOException {
+        List<ShardSearchFailure> list = new ArrayList<>();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token == XContentParser.Token.START_OBJECT) {
+                list.add(parseShardFailure(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return list.toArray(new ShardSearchFailure[list.size()]);
     }
 
-    @SuppressWarnings("unchecked")
-    private InternalSearchHits parseInternalSearchHits(Map<String,?> map) {
-        // InternalSearchHits(InternalSearchHit[] hits, long totalHits, float maxScore)
-        InternalSearchHit[] internalSearchHits = parseInternalSearchHit(map);
-        map = (Map<String, ?>) map.get(HITS);
-        long totalHits = map.containsKey(TOTAL) ? (Integer)map.get(TOTAL) : -1L;
-        double maxScore = map.containsKey(MAXSCORE) ? (Double)map.get(MAXSCORE) : 0.0f;
-        return new InternalSearchHits(internalSearchHits, totalHits, (float)maxScore);
+    private ShardSearchFailure parseShardFailure(XContentParser parser) throws IOException {
+        String index = null;
+        String node = null;
+        int shard = -1;
+        String reason = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (REASON.equals(currentFieldName)) {
+                reason = parseReason(parser);
+            } else if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+                parser.skipChildren();
+            } else if (token == XContentParser.Token.VALUE_NULL) {
+                // e.g. the node of an unassigned shard
+            } else if (INDEX_NAME.equals(currentFieldName)) {
+                index = parser.text();
+            } else if (NODE.equals(currentFieldName)) {
+                node = parser.text();
+            } else if (SHARD.equals(currentFieldName)) {
+                shard = parser.intValue();
+            }
+        }
+        return new ShardSearchFailure(reason, new SearchShardTarget(node, index, shard));
     }
 
-    @SuppressWarnings("unchecked")
-    private InternalSearchHit[] parseInternalSearchHit(Map<String,?> map) {
-        // public InternalSearchHit(int docId, String id, Text type, Map<String, SearchHitField> fields)
-        List<InternalSearchHit> list = new LinkedList<>();
-        Map<String,?> hitmap = (Map<String, ?>) map.get(HITS);
-        List<Map<String,?>> hits = (List<Map<String, ?>>) hitmap.get(HITS);
-        return list.toArray(new InternalSearchHit[list.size()]);
+    /**
+     * Reasons are strings in older versions and objects with type and reason since 2.0.
+     */
+    private static String parseReason(XContentParser parser) throws IOException {
+        if (parser.currentToken() == XContentParser.Token.START_OBJECT) {
+            String type = null;
+            String reason = null;
+            String currentFieldName = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+                    parser.skipChildren();
+                } else if (TYPE_NAME.equals(currentFieldName)) {
+                    type = parser.text();
+                } else if (REASON.equals(currentFieldName)) {
+                    reason = parser.text();
+                }
+            }
+            return type != null ? type + "[" + reason + "]" : reason;
+        }
+        if (parser.currentToken() == XContentParser.Token.START_ARRAY) {
+            return XContentFactory.jsonBuilder().copyCurrentStructure(parser).string();
+        }
+        return parser.text();
     }
 
-    private InternalAggregations parseInternalAggregations(Map<String,?> map) {
-        return null;
+    private InternalSearchHits parseInternalSearchHits(XContentParser parser) throws IOException {
+        InternalSearchHit[] internalSearchHits = InternalSearchHits.EMPTY;
+        long totalHits = -1L;
+        float maxScore = Float.NaN;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (HITS.equals(currentFieldName) && token == XContentParser.Token.START_ARRAY) {
+                List<InternalSearchHit> list = new ArrayList<>();
+                while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    if (token == XContentParser.Token.START_OBJECT) {
+                        list.add(parseInternalSearchHit(parser, list.size()));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                internalSearchHits = list.toArray(new InternalSearchHit[list.size()]);
+            } else if (TOTAL.equals(currentFieldName) && token.isValue()) {
+                totalHits = parser.longValue();
+            } else if (MAXSCORE.equals(currentFieldName) && token == XContentParser.Token.VALUE_NUMBER) {
+                maxScore = parser.floatValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new InternalSearchHits(internalSearchHits, totalHits, maxScore);
     }
 
-    private Suggest parseSuggest(Map<String,?> map) {
-        return null;
+    private InternalSearchHit parseInternalSearchHit(XContentParser parser, int docId) throws IOException {
+        String index = null;
+        String type = null;
+        String id = null;
+        float score = Float.NaN;
+        long version = -1L;
+        BytesReference source = null;
+        Map<String, SearchHitField> fields = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (SOURCE.equals(currentFieldName) && token == XContentParser.Token.START_OBJECT) {
+                source = XContentFactory.jsonBuilder().copyCurrentStructure(parser).bytes();
+            } else if (FIELDS.equals(currentFieldName) && token == XContentParser.Token.START_OBJECT) {
+                fields = parseFields(parser);
+            } else if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+                parser.skipChildren();
+            } else if (token == XContentParser.Token.VALUE_NULL) {
+                // e.g. the score when sorting by field
+            } else if (INDEX.equals(currentFieldName)) {
+                index = parser.text();
+            } else if (TYPE.equals(currentFieldName)) {
+                type = parser.text();
+            } else if (ID.equals(currentFieldName)) {
+                id = parser.text();
+            } else if (SCORE.equals(currentFieldName)) {
+                score = parser.floatValue();
+            } else if (VERSION.equals(currentFieldName)) {
+                version = parser.longValue();
+            }
+        }
+        InternalSearchHit internalSearchHit = new InternalSearchHit(docId, id,
+                type != null ? new Text(type) : null, fields);
+        internalSearchHit.score(score);
+        internalSearchHit.version(version);
+        if (source != null) {
+            internalSearchHit.sourceRef(source);
+        }
+        if (index != null) {
+            internalSearchHit.shard(new SearchShardTarget(null, index, -1));
+        }
+        return internalSearchHit;
     }
 
-    private ShardSearchFailure[] parseShardFailures(Map<String,?> map) {
-        return ShardSearchFailure.EMPTY_ARRAY;
+    private Map<String, SearchHitField> parseFields(XContentParser parser) throws IOException {
+        Map<String, SearchHitField> fields = new HashMap<>();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                String name = parser.currentName();
+                token = parser.nextToken();
+                List<Object> values = token == XContentParser.Token.START_ARRAY ?
+                        parser.list() : Collections.singletonList(parser.objectText());
+                fields.put(name, new InternalSearchHitField(name, values));
+            }
+        }
+        return fields;
     }
 
     private final static String SCROLL_ID = "_scroll_id";
@@ -116,10 +283,24 @@ public class HttpSearchAction extends HttpAction<SearchRequest, SearchResponse>
     private final static String SHARDS = "_shards";
     private final static String TOTAL = "total";
     private final static String SUCCESSFUL = "successful";
-    private final static String FAILED = "failed";
     private final static String FAILURES = "failures";
+    private final static String SHARD = "shard";
+    private final static String INDEX_NAME = "index";
+    private final static String NODE = "node";
+    private final static String REASON = "reason";
+    private final static String TYPE_NAME = "type";
 
     private final static String HITS = "hits";
     private final static String MAXSCORE = "max_score";
+    private final static String TERMINATED_EARLY = "terminated_early";
+    private final static String ERROR = "error";
+
+    private final static String INDEX = "_index";
+    private final static String TYPE = "_type";
+    private final static String ID = "_id";
+    private final static String SCORE = "_score";
+    private final static String VERSION = "_version";
+    private final static String SOURCE = "_source";
+    private final static String FIELDS = "fields";
 }
 
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.ingest;
+
+import org.elasticsearch.action.ActionRequest;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A queue of actions in array segments, with a constant time size and handover of whole segments.
+ *
+ * Adding and taking is thread safe. Iterating is not, it is meant for requests which are no longer modified,
+ * e.g. requests received from the network.
+ */
+final class ActionQueue implements Iterable<ActionRequest<?>> {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    private ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    private int size;
+
+    private long sizeInBytes;
+
+    synchronized void offer(ActionRequest<?> request, long bytes) {
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.isFull()) {
+            tail = new Segment(SEGMENT_SIZE);
+            segments.addLast(tail);
+        }
+        tail.add(request, bytes);
+        size++;
+        sizeInBytes += bytes;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Move all actions into another queue by handing over the segments.
+     *
+     * @param target the queue to move the actions to, must be empty and not be accessed concurrently
+     */
+    synchronized void drainTo(ActionQueue target) {
+        target.segments = segments;
+        target.size = size;
+        target.sizeInBytes = sizeInBytes;
+        segments = new ArrayDeque<>();
+        size = 0;
+        sizeInBytes = 0L;
+    }
+
+    /**
+     * Move a number of actions into another queue. Whole segments are handed over, only the last segment
+     * may be split.
+     *
+     * @param target the queue to move the actions to, must be empty and not be accessed concurrently
+     * @param n      the number of actions
+     */
+    synchronized void drainTo(ActionQueue target, int n) {
+        int remaining = Math.min(n, size);
+        while (remaining > 0) {
+            Segment head = segments.peekFirst();
+            Segment moved;
+            if (head.size() <= remaining) {
+                moved = segments.pollFirst();
+            } else {
+                moved = head.split(remaining);
+            }
+            target.segments.addLast(moved);
+            target.size += moved.size();
+            target.sizeInBytes += moved.sizeInBytes;
+            size -= moved.size();
+            sizeInBytes -= moved.sizeInBytes;
+            remaining -= moved.size();
+        }
+    }
+
+    @Override
+    public Iterator<ActionRequest<?>> iterator() {
+        final Iterator<Segment> it = segments.iterator();
+        return new Iterator<ActionRequest<?>>() {
+            private Segment segment;
+            private int pos;
+
+            @Override
+            public boolean hasNext() {
+                while (segment == null || pos >= segment.tail) {
+                    if (!it.hasNext()) {
+                        return false;
+                    }
+                    segment = it.next();
+                    pos = segment.head;
+                }
+                return true;
+            }
+
+            @Override
+            public ActionRequest<?> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return segment.requests[pos++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static final class Segment {
+
+        private final ActionRequest<?>[] requests;
+
+        private final long[] bytes;
+
+        private int head;
+
+        private int tail;
+
+        private long sizeInBytes;
+
+        Segment(int capacity) {
+            this.requests = new ActionRequest<?>[capacity];
+            this.bytes = new long[capacity];
+        }
+
+        boolean isFull() {
+            return tail == requests.length;
+        }
+
+        int size() {
+            return tail - head;
+        }
+
+        void add(ActionRequest<?> request, long size) {
+            requests[tail] = request;
+            bytes[tail] = size;
+            tail++;
+            sizeInBytes += size;
+        }
+
+        /**
+         * Remove the first actions of this segment into a new segment.
+         */
+        Segment split(int n) {
+            Segment segment = new Segment(n);
+            for (int i = 0; i < n; i++) {
+                segment.add(requests[head], bytes[head]);
+                requests[head] = null;
+                sizeInBytes -= bytes[head];
+                head++;
+            }
+            return segment;
+        }
+    }
+}
@@ -15,6 +15,11 @@ public class IngestAction extends Action<IngestRequest, IngestResponse, IngestRe
 
     public static final String NAME = "indices:data/write/xbib/ingest";
 
+    /**
+     * The name of the thread pool for the shard operations, registered by the helper plugin.
+     */
+    public static final String EXECUTOR = "ingest_helper";
+
     public IngestAction() {
         super(NAME);
     }
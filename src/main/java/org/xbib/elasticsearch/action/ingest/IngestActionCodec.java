@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.ingest;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.VersionType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compact wire format for the actions of ingest requests, shard requests and shard responses.
+ *
+ * Index, type, routing and parent names are written once per message and referenced by ordinal afterwards,
+ * versions are written as deltas to the previous version, and the sources are written as one block after
+ * the action headers. The source block can be compressed with the default compressor.
+ *
+ * Index requests with an auto generated id are written in full, because the flag can not be restored
+ * on an index request by other means, and the engine relies on it for appending documents.
+ *
+ * The headers of each action are kept. The context of an action is local to the node and is not written,
+ * the same as with the stream format of the action itself.
+ */
+public final class IngestActionCodec {
+
+    private static final byte FORMAT_COMPACT = 1;
+
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private static final byte NULL = 0;
+
+    private static final byte INDEX = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final byte INDEX_FULL = 3;
+
+    private IngestActionCodec() {
+    }
+
+    /**
+     * Write actions in the compact format.
+     *
+     * @param out      the stream
+     * @param actions  the actions, which may contain null for failed actions
+     * @param size     the number of actions
+     * @param compress true if the sources should be compressed
+     * @throws IOException if the actions can not be written
+     */
+    public static void writeTo(StreamOutput out, Iterable<ActionRequest<?>> actions, int size, boolean compress)
+            throws IOException {
+        out.writeByte(FORMAT_COMPACT);
+        out.writeByte(compress ? FLAG_COMPRESSED : 0);
+        out.writeVInt(size);
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<BytesReference> sources = new ArrayList<>(size);
+        long sourceLength = 0L;
+        long lastVersion = 0L;
+        for (ActionRequest<?> action : actions) {
+            if (action == null) {
+                out.writeByte(NULL);
+            } else if (action instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) action;
+                if (indexRequest.autoGeneratedId()) {
+                    out.writeByte(INDEX_FULL);
+                    indexRequest.writeTo(out);
+                    continue;
+                }
+                out.writeByte(INDEX);
+                writeHeaders(out, indexRequest);
+                writeName(out, dictionary, indexRequest.index());
+                writeName(out, dictionary, indexRequest.type());
+                out.writeOptionalString(indexRequest.id());
+                writeName(out, dictionary, indexRequest.routing());
+                writeName(out, dictionary, indexRequest.parent());
+                out.writeOptionalString(indexRequest.timestamp());
+                TimeValue ttl = indexRequest.ttl();
+                out.writeLong(ttl != null ? ttl.millis() : -1L);
+                out.writeByte(indexRequest.opType().id());
+                out.writeBoolean(indexRequest.refresh());
+                out.writeByte(indexRequest.versionType().getValue());
+                writeDelta(out, indexRequest.version() - lastVersion);
+                lastVersion = indexRequest.version();
+                BytesReference source = indexRequest.source();
+                out.writeVInt(source.length());
+                sources.add(source);
+                sourceLength += source.length();
+            } else if (action instanceof DeleteRequest) {
+                DeleteRequest deleteRequest = (DeleteRequest) action;
+                out.writeByte(DELETE);
+                writeHeaders(out, deleteRequest);
+                writeName(out, dictionary, deleteRequest.index());
+                writeName(out, dictionary, deleteRequest.type());
+                out.writeString(deleteRequest.id());
+                writeName(out, dictionary, deleteRequest.routing());
+                out.writeBoolean(deleteRequest.refresh());
+                out.writeByte(deleteRequest.versionType().getValue());
+                writeDelta(out, deleteRequest.version() - lastVersion);
+                lastVersion = deleteRequest.version();
+            } else {
+                throw new IllegalArgumentException("action request not supported: " + action.getClass().getName());
+            }
+        }
+        if (sourceLength > Integer.MAX_VALUE) {
+            throw new IOException("sources too large for a single message: " + sourceLength);
+        }
+        if (compress) {
+            BytesStreamOutput bytes = new BytesStreamOutput((int) sourceLength / 2);
+            StreamOutput compressed = CompressorFactory.defaultCompressor().streamOutput(bytes);
+            writeSources(compressed, sources);
+            compressed.close();
+            out.writeBytesReference(bytes.bytes());
+        } else {
+            out.writeVInt((int) sourceLength);
+            writeSources(out, sources);
+        }
+    }
+
+    /**
+     * Read actions in the compact format.
+     *
+     * @param in      the stream
+     * @param actions the list to add the actions to, null is added for failed actions
+     * @return true if the sources were compressed
+     * @throws IOException if the actions can not be read
+     */
+    public static boolean readFrom(StreamInput in, List<ActionRequest<?>> actions) throws IOException {
+        byte format = in.readByte();
+        if (format != FORMAT_COMPACT) {
+            throw new IOException("unknown ingest action format: " + format);
+        }
+        boolean compressed = (in.readByte() & FLAG_COMPRESSED) != 0;
+        int size = in.readVInt();
+        int offset = actions.size();
+        List<String> dictionary = new ArrayList<>();
+        int[] sourceLengths = new int[size];
+        Arrays.fill(sourceLengths, -1);
+        long lastVersion = 0L;
+        for (int i = 0; i < size; i++) {
+            byte type = in.readByte();
+            if (type == NULL) {
+                actions.add(null);
+            } else if (type == INDEX_FULL) {
+                IndexRequest indexRequest = new IndexRequest();
+                indexRequest.readFrom(in);
+                actions.add(indexRequest);
+            } else if (type == INDEX) {
+                IndexRequest indexRequest = new IndexRequest();
+                readHeaders(in, indexRequest);
+                indexRequest.index(readName(in, dictionary));
+                indexRequest.type(readName(in, dictionary));
+                indexRequest.id(in.readOptionalString());
+                indexRequest.routing(readName(in, dictionary));
+                indexRequest.parent(readName(in, dictionary));
+                indexRequest.timestamp(in.readOptionalString());
+                long ttl = in.readLong();
+                if (ttl >= 0L) {
+                    indexRequest.ttl(ttl);
+                }
+                indexRequest.opType(IndexRequest.OpType.fromId(in.readByte()));
+                indexRequest.refresh(in.readBoolean());
+                indexRequest.versionType(VersionType.fromValue(in.readByte()));
+                lastVersion += readDelta(in);
+                indexRequest.version(lastVersion);
+                sourceLengths[i] = in.readVInt();
+                actions.add(indexRequest);
+            } else if (type == DELETE) {
+                DeleteRequest deleteRequest = new DeleteRequest();
+                readHeaders(in, deleteRequest);
+                deleteRequest.index(readName(in, dictionary));
+                deleteRequest.type(readName(in, dictionary));
+                deleteRequest.id(in.readString());
+                deleteRequest.routing(readName(in, dictionary));
+                deleteRequest.refresh(in.readBoolean());
+                deleteRequest.versionType(VersionType.fromValue(in.readByte()));
+                lastVersion += readDelta(in);
+                deleteRequest.version(lastVersion);
+                actions.add(deleteRequest);
+            } else {
+                throw new IOException("unknown ingest action type: " + type);
+            }
+        }
+        BytesReference sources = in.readBytesReference();
+        if (compressed) {
+            sources = CompressorFactory.uncompressIfNeeded(sources);
+        }
+        // the sources share the array of the block, there is no copy per document
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            if (sourceLengths[i] >= 0) {
+                ((IndexRequest) actions.get(offset + i)).source(sources.slice(pos, sourceLengths[i]));
+                pos += sourceLengths[i];
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Write the sources. Sources which were read from the same message are slices of one array, adjacent
+     * slices are forwarded with a single write instead of one write per document.
+     */
+    private static void writeSources(StreamOutput out, List<BytesReference> sources) throws IOException {
+        byte[] array = null;
+        int offset = 0;
+        int length = 0;
+        for (BytesReference source : sources) {
+            if (!source.hasArray()) {
+                if (length > 0) {
+                    out.writeBytes(array, offset, length);
+                    length = 0;
+                }
+                source.writeTo(out);
+                continue;
+            }
+            if (source.array() == array && source.arrayOffset() == offset + length) {
+                length += source.length();
+                continue;
+            }
+            if (length > 0) {
+                out.writeBytes(array, offset, length);
+            }
+            array = source.array();
+            offset = source.arrayOffset();
+            length = source.length();
+        }
+        if (length > 0) {
+            out.writeBytes(array, offset, length);
+        }
+    }
+
+    private static void writeHeaders(StreamOutput out, ActionRequest<?> action) throws IOException {
+        Set<String> names = action.getHeaders();
+        out.writeVInt(names.size());
+        for (String name : names) {
+            out.writeString(name);
+            out.writeGenericValue(action.getHeader(name));
+        }
+    }
+
+    private static void readHeaders(StreamInput in, ActionRequest<?> action) throws IOException {
+        int size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            action.putHeader(in.readString(), in.readGenericValue());
+        }
+    }
+
+    private static void writeName(StreamOutput out, Map<String, Integer> dictionary, String name) throws IOException {
+        if (name == null) {
+            out.writeVInt(0);
+            return;
+        }
+        Integer ordinal = dictionary.get(name);
+        if (ordinal != null) {
+            out.writeVInt(ordinal + 1);
+        } else {
+            out.writeVInt(dictionary.size() + 1);
+            out.writeString(name);
+            dictionary.put(name, dictionary.size());
+        }
+    }
+
+    private static String readName(StreamInput in, List<String> dictionary) throws IOException {
+        int code = in.readVInt();
+        if (code == 0) {
+            return null;
+        }
+        if (code <= dictionary.size()) {
+            return dictionary.get(code - 1);
+        }
+        String name = in.readString();
+        dictionary.add(name);
+        return name;
+    }
+
+    private static void writeDelta(StreamOutput out, long delta) throws IOException {
+        out.writeVLong((delta << 1) ^ (delta >> 63));
+    }
+
+    private static long readDelta(StreamInput in) throws IOException {
+        long zigzag = in.readVLong();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
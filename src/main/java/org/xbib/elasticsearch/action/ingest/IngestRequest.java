@@ -12,6 +12,7 @@ import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContent;
 import org.elasticsearch.common.xcontent.XContentFactory;
@@ -19,10 +20,8 @@ import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.VersionType;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
 
 import static org.elasticsearch.action.ValidateActions.addValidationError;
 
@@ -30,9 +29,7 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
 
     private static final int REQUEST_OVERHEAD = 50;
 
-    private final Queue<ActionRequest<?>> requests = newQueue();
-
-    private final AtomicLong sizeInBytes = new AtomicLong();
+    private final ActionQueue requests = new ActionQueue();
 
     private TimeValue timeout = Consistency.DEFAULT_TIMEOUT;
 
@@ -40,6 +37,8 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
 
     private long ingestId;
 
+    private boolean compress;
+
     public IngestRequest timeout(TimeValue timeout) {
         this.timeout = timeout;
         return this;
@@ -67,11 +66,22 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
         return ingestId;
     }
 
-    public Queue<ActionRequest<?>> newQueue() {
-        return new ConcurrentLinkedQueue<ActionRequest<?>>();
+    /**
+     * Compress the sources of the actions on the wire, here and in the shard requests derived from this request.
+     *
+     * @param compress true if sources should be compressed
+     * @return this request
+     */
+    public IngestRequest compress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
+    public boolean compress() {
+        return compress;
     }
 
-    protected Queue<ActionRequest<?>> requests() {
+    protected Iterable<ActionRequest<?>> requests() {
         return requests;
     }
 
@@ -111,8 +121,7 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
     }
 
     public IngestRequest add(DeleteRequest request) {
-        requests.offer(request);
-        sizeInBytes.addAndGet(REQUEST_OVERHEAD);
+        requests.offer(request, REQUEST_OVERHEAD);
         return this;
     }
 
@@ -133,7 +142,6 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
      * @return the number of actions
      */
     public int numberOfActions() {
-        // for ConcurrentLinkedList, this call is not O(n), and may not be the size of the current list
         return requests.size();
     }
 
@@ -143,7 +151,7 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
      * @return the estimated byte size
      */
     public long estimatedSizeInBytes() {
-        return sizeInBytes.longValue();
+        return requests.sizeInBytes();
     }
 
     /**
@@ -184,15 +192,34 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
      * @throws Exception if data could not be added
      */
     public IngestRequest add(BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType) throws Exception {
+        add(data, 0, defaultIndex, defaultType, Integer.MAX_VALUE, Long.MAX_VALUE);
+        return this;
+    }
+
+    /**
+     * Adds framed data in binary format, starting at a position, until a number of actions or a byte size is
+     * reached. This allows to parse a large body in bounded chunks.
+     *
+     * @param data         data
+     * @param from         the position to start parsing at
+     * @param defaultIndex the default index
+     * @param defaultType  the default type
+     * @param maxActions   the maximum number of actions in this request
+     * @param maxBytes     the estimated byte size of this request after which parsing stops
+     * @return the position of the first byte which was not parsed, which is the length of the data if all
+     * complete actions were parsed
+     * @throws Exception if data could not be added
+     */
+    public int add(BytesReference data, int from, @Nullable String defaultIndex, @Nullable String defaultType,
+                   int maxActions, long maxBytes) throws Exception {
         XContent xContent = XContentFactory.xContent(data);
-        int from = 0;
-        int length = data.length();
-        byte marker = xContent.streamSeparator();
-        while (true) {
-            int nextMarker = findNextMarker(marker, from, data, length);
+        MarkerScanner markers = new MarkerScanner(xContent.streamSeparator(), data, from);
+        while (requests.size() < maxActions && requests.sizeInBytes() < maxBytes) {
+            int nextMarker = markers.next();
             if (nextMarker == -1) {
                 break;
             }
+            int start = from;
             // now parse the move
             XContentParser parser = xContent.createParser(data.slice(from, nextMarker - from));
             try {
@@ -218,7 +245,7 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
                 String timestamp = null;
                 Long ttl = null;
                 String opType = null;
-                long version = 0;
+                long version = Versions.MATCH_ANY;
                 VersionType versionType = VersionType.INTERNAL;
 
                 // at this stage, next token can either be END_OBJECT (and use default index and type, with auto generated id)
@@ -260,21 +287,23 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
                 if ("delete".equals(action)) {
                     add(new DeleteRequest(index, type, id).parent(parent).version(version).versionType(versionType).routing(routing));
                 } else {
-                    nextMarker = findNextMarker(marker, from, data, length);
+                    nextMarker = markers.next();
                     if (nextMarker == -1) {
+                        // incomplete action without source
+                        from = start;
                         break;
                     }
                     if ("index".equals(action)) {
                         if (opType == null) {
-                            internalAdd(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
+                            internalAdd(ttl(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp), ttl).version(version).versionType(versionType)
                                     .source(data.slice(from, nextMarker - from)));
                         } else {
-                            internalAdd(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
+                            internalAdd(ttl(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp), ttl).version(version).versionType(versionType)
                                     .create("create".equals(opType))
                                     .source(data.slice(from, nextMarker - from)));
                         }
                     } else if ("create".equals(action)) {
-                        internalAdd(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp).ttl(ttl).version(version).versionType(versionType)
+                        internalAdd(ttl(new IndexRequest(index, type, id).routing(routing).parent(parent).timestamp(timestamp), ttl).version(version).versionType(versionType)
                                 .create(true)
                                 .source(data.slice(from, nextMarker - from)));
                     }
@@ -284,52 +313,31 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
                 parser.close();
             }
         }
-        return this;
+        return from;
     }
 
     /**
-     * Take all requests from queue. This method is thread safe.
+     * Take all requests from queue. The requests are handed over without validating them again.
+     * This method is thread safe.
      *
      * @return a bulk request
      */
     public IngestRequest takeAll() {
-        IngestRequest request = new IngestRequest();
-        while (!requests.isEmpty()) {
-            ActionRequest<?> actionRequest = requests.poll();
-            request.add(actionRequest);
-            if (actionRequest instanceof IndexRequest) {
-                IndexRequest indexRequest = (IndexRequest) actionRequest;
-                long length = indexRequest.source() != null ? indexRequest.source().length() + REQUEST_OVERHEAD : REQUEST_OVERHEAD;
-                sizeInBytes.addAndGet(-length);
-            } else if (actionRequest instanceof DeleteRequest) {
-                sizeInBytes.addAndGet(REQUEST_OVERHEAD);
-            }
-        }
+        IngestRequest request = new IngestRequest().compress(compress);
+        requests.drainTo(request.requests);
         return request;
     }
 
     /**
-     * Take a number of requests from the bulk request queue.
-     * This method is thread safe.
+     * Take a number of requests from the bulk request queue. The requests are handed over without validating
+     * them again. This method is thread safe.
      *
      * @param numRequests number of requests
      * @return a partial bulk request
      */
     public IngestRequest take(int numRequests) {
-        IngestRequest request = new IngestRequest();
-        for (int i = 0; i < numRequests; i++) {
-            ActionRequest<?> actionRequest = requests.poll();
-            request.add(actionRequest);
-            if (actionRequest instanceof IndexRequest) {
-                IndexRequest indexRequest = (IndexRequest) actionRequest;
-                long length = indexRequest.source() != null ? indexRequest.source().length() + REQUEST_OVERHEAD : REQUEST_OVERHEAD;
-                sizeInBytes.addAndGet(-length);
-            } else if (actionRequest instanceof DeleteRequest) {
-                sizeInBytes.addAndGet(REQUEST_OVERHEAD);
-            } else {
-                throw new IllegalStateException("action request not supported: " + actionRequest.getClass().getName());
-            }
-        }
+        IngestRequest request = new IngestRequest().compress(compress);
+        requests.drainTo(request.requests, numRequests);
         return request;
     }
 
@@ -359,17 +367,13 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
     public void readFrom(StreamInput in) throws IOException {
         timeout = TimeValue.readTimeValue(in);
         ingestId = in.readLong();
-        int size = in.readVInt();
-        for (int i = 0; i < size; i++) {
-            byte type = in.readByte();
-            if (type == 0) {
-                IndexRequest request = new IndexRequest();
-                request.readFrom(in);
-                requests.add(request);
-            } else if (type == 1) {
-                DeleteRequest request = new DeleteRequest();
-                request.readFrom(in);
-                requests.add(request);
+        List<ActionRequest<?>> actions = new ArrayList<>();
+        compress = IngestActionCodec.readFrom(in, actions);
+        for (ActionRequest<?> request : actions) {
+            if (request instanceof IndexRequest) {
+                requests.offer(request, sizeOf((IndexRequest) request));
+            } else if (request instanceof DeleteRequest) {
+                requests.offer(request, REQUEST_OVERHEAD);
             }
         }
     }
@@ -378,15 +382,7 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
     public void writeTo(StreamOutput out) throws IOException {
         timeout.writeTo(out);
         out.writeLong(ingestId);
-        out.writeVInt(requests.size());
-        for (ActionRequest<?> request : requests) {
-            if (request instanceof IndexRequest) {
-                out.writeByte((byte) 0);
-            } else if (request instanceof DeleteRequest) {
-                out.writeByte((byte) 1);
-            }
-            request.writeTo(out);
-        }
+        IngestActionCodec.writeTo(out, requests, requests.size(), compress);
     }
 
     IngestRequest internalAdd(IndexRequest request) {
@@ -399,17 +395,21 @@ public class IngestRequest extends ActionRequest<IngestRequest> implements Compo
         if (validationException != null) {
             throw validationException;
         }
-        requests.offer(request);
-        sizeInBytes.addAndGet(request.source().length() + REQUEST_OVERHEAD);
+        requests.offer(request, sizeOf(request));
         return this;
     }
 
-    private int findNextMarker(byte marker, int from, BytesReference data, int length) {
-        for (int i = from; i < length; i++) {
-            if (data.get(i) == marker) {
-                return i;
-            }
+    private static long sizeOf(IndexRequest request) {
+        return (request.source() != null ? request.source().length() : 0) + REQUEST_OVERHEAD;
+    }
+
+    /**
+     * Set the TTL of an index request if the action specified one, the TTL of an index request can not be unset.
+     */
+    private static IndexRequest ttl(IndexRequest request, @Nullable Long ttl) {
+        if (ttl != null) {
+            request.ttl(ttl);
         }
-        return -1;
+        return request;
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.ingest;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Finds the positions of a marker byte, e.g. the line separator of bulk data, in ascending order.
+ *
+ * The scanner works on the backing array of the data, instead of reading each byte through the bytes reference,
+ * and collects the positions of a block of markers at once, so parsing a large body in chunks does not scan the
+ * remaining data for each chunk. Data without a backing array, e.g. paged data, is scanned through a channel
+ * buffer which wraps the pages without copying them.
+ */
+final class MarkerScanner {
+
+    private static final int BLOCK_SIZE = 256;
+
+    private final byte marker;
+
+    private final byte[] array;
+
+    private final int arrayOffset;
+
+    private final ChannelBuffer buffer;
+
+    private final int length;
+
+    private final int[] positions = new int[BLOCK_SIZE];
+
+    private int pos;
+
+    private int count;
+
+    private int next;
+
+    /**
+     * Create a scanner.
+     *
+     * @param marker the marker
+     * @param data   the data
+     * @param from   the position to start at
+     */
+    MarkerScanner(byte marker, BytesReference data, int from) {
+        this.marker = marker;
+        this.length = data.length();
+        this.pos = from;
+        if (data.hasArray()) {
+            this.array = data.array();
+            this.arrayOffset = data.arrayOffset();
+            this.buffer = null;
+        } else {
+            this.array = null;
+            this.arrayOffset = 0;
+            this.buffer = data.toChannelBuffer();
+        }
+    }
+
+    /**
+     * Returns the position of the next marker.
+     *
+     * @return the position, or -1 if there is no further marker
+     */
+    int next() {
+        if (next == count) {
+            fill();
+            if (count == 0) {
+                return -1;
+            }
+        }
+        return positions[next++];
+    }
+
+    private void fill() {
+        count = 0;
+        next = 0;
+        if (array != null) {
+            int i = pos;
+            while (i < length && count < positions.length) {
+                if (array[arrayOffset + i] == marker) {
+                    positions[count++] = i;
+                }
+                i++;
+            }
+            pos = i;
+            return;
+        }
+        while (pos < length && count < positions.length) {
+            int i = buffer.indexOf(pos, length, marker);
+            if (i < 0) {
+                pos = length;
+                return;
+            }
+            positions[count++] = i;
+            pos = i + 1;
+        }
+    }
+}
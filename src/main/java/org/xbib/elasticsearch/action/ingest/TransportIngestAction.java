@@ -2,6 +2,7 @@ package org.xbib.elasticsearch.action.ingest;
 
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.Version;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.DocumentRequest;
@@ -13,10 +14,13 @@ import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.block.ClusterBlockException;
 import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.routing.HashFunction;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.math.MathUtils;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.threadpool.ThreadPool;
@@ -27,8 +31,10 @@ import org.xbib.elasticsearch.action.ingest.leader.TransportLeaderShardIngestAct
 import org.xbib.elasticsearch.action.ingest.replica.IngestReplicaShardRequest;
 import org.xbib.elasticsearch.action.ingest.replica.TransportReplicaShardIngestAction;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -37,6 +43,11 @@ public class TransportIngestAction extends HandledTransportAction<IngestRequest,
 
     private final boolean allowIdGeneration;
 
+    /**
+     * The maximum number of actions per leader request of a shard, or 0 for one leader request per shard.
+     */
+    private final int pipelinedBatchSize;
+
     private final ClusterService clusterService;
 
     private final TransportLeaderShardIngestAction leaderShardIngestAction;
@@ -55,6 +66,7 @@ public class TransportIngestAction extends HandledTransportAction<IngestRequest,
         this.leaderShardIngestAction = leaderShardIngestAction;
         this.replicaShardIngestAction = replicaShardIngestAction;
         this.allowIdGeneration = this.settings.getAsBoolean("action.allow_id_generation", true);
+        this.pipelinedBatchSize = this.settings.getAsInt("action.ingest.pipelined_batch_size", 0);
     }
 
     @Override
@@ -71,57 +83,41 @@ public class TransportIngestAction extends HandledTransportAction<IngestRequest,
         }
         final ConcreteIndices concreteIndices = new ConcreteIndices(clusterState, indexNameExpressionResolver);
         MetaData metaData = clusterState.metaData();
-        final List<ActionRequest<?>> requests = new LinkedList<>();
+        // resolve, process, and route each request in a single pass, with per-index lookups cached
+        Map<ShardId, List<ActionRequest<?>>> requestsByShard = new HashMap<>();
         for (ActionRequest<?> request : ingestRequest.requests()) {
-            String concreteIndex = concreteIndices.resolveIfAbsent((DocumentRequest)request);
+            String concreteIndex = concreteIndices.resolveIfAbsent((DocumentRequest) request);
+            IndexRouting indexRouting = concreteIndices.routing(concreteIndex);
+            ShardId shardId;
             if (request instanceof IndexRequest) {
                 try {
                     IndexRequest indexRequest = (IndexRequest) request;
                     indexRequest.routing(metaData.resolveIndexRouting(indexRequest.routing(), concreteIndex));
                     indexRequest.index(concreteIndex);
-                    MappingMetaData mappingMd = null;
-                    if (metaData.hasIndex(concreteIndex)) {
-                        mappingMd = metaData.index(concreteIndex).mappingOrDefault(indexRequest.type());
-                    }
+                    MappingMetaData mappingMd = indexRouting != null ? indexRouting.mapping(indexRequest.type()) : null;
                     indexRequest.process(metaData, mappingMd, allowIdGeneration, concreteIndex);
-                    requests.add(indexRequest);
+                    shardId = shardId(clusterState, indexRouting, concreteIndex,
+                            indexRequest.type(), indexRequest.id(), indexRequest.routing());
                 } catch (Throwable e) {
                     logger.error(e.getMessage(), e);
                     ingestResponse.addFailure(new IngestActionFailure(-1L, null, ExceptionsHelper.detailedMessage(e)));
+                    continue;
                 }
             } else if (request instanceof DeleteRequest) {
                 DeleteRequest deleteRequest = (DeleteRequest) request;
                 deleteRequest.routing(metaData.resolveIndexRouting(deleteRequest.routing(), concreteIndex));
                 deleteRequest.index(concreteIndex);
-                requests.add(deleteRequest);
+                shardId = shardId(clusterState, indexRouting, concreteIndex,
+                        deleteRequest.type(), deleteRequest.id(), deleteRequest.routing());
             } else {
                 throw new ElasticsearchException("action request not known: " + request.getClass().getName());
             }
-        }
-        // second, go over all the requests and create a shard request map
-        Map<ShardId, List<ActionRequest<?>>> requestsByShard = new HashMap<>();
-        for (ActionRequest<?> request : requests) {
-            if (request instanceof IndexRequest) {
-                IndexRequest indexRequest = (IndexRequest) request;
-                String concreteIndex = concreteIndices.getConcreteIndex(indexRequest.index());
-                ShardId shardId = clusterService.operationRouting().indexShards(clusterState, concreteIndex, indexRequest.type(), indexRequest.id(), indexRequest.routing()).shardId();
-                List<ActionRequest<?>> list = requestsByShard.get(shardId);
-                if (list == null) {
-                    list = new LinkedList<>();
-                    requestsByShard.put(shardId, list);
-                }
-                list.add(request);
-            } else if (request instanceof DeleteRequest) {
-                DeleteRequest deleteRequest = (DeleteRequest) request;
-                String concreteIndex = concreteIndices.getConcreteIndex(deleteRequest.index());
-                ShardId shardId = clusterService.operationRouting().indexShards(clusterState, concreteIndex, deleteRequest.type(), deleteRequest.id(), deleteRequest.routing()).shardId();
-                List<ActionRequest<?>> list = requestsByShard.get(shardId);
-                if (list == null) {
-                    list = new LinkedList<>();
-                    requestsByShard.put(shardId, list);
-                }
-                list.add(deleteRequest);
+            List<ActionRequest<?>> list = requestsByShard.get(shardId);
+            if (list == null) {
+                list = new ArrayList<>();
+                requestsByShard.put(shardId, list);
             }
+            list.add(request);
         }
         if (requestsByShard.isEmpty()) {
             logger.error("no shards to execute ingest");
@@ -131,95 +127,259 @@ public class TransportIngestAction extends HandledTransportAction<IngestRequest,
             listener.onResponse(ingestResponse);
             return;
         }
-        // third, for each shard, execute leader/replica action
-        final AtomicInteger successCount = new AtomicInteger(0);
-        final AtomicInteger responseCounter = new AtomicInteger(requestsByShard.size());
+        // third, for each shard, execute leader/replica action, in sub-batches if pipelined
+        int batches = 0;
+        List<ShardIngest> shardIngests = new ArrayList<>(requestsByShard.size());
         for (Map.Entry<ShardId, List<ActionRequest<?>>> entry : requestsByShard.entrySet()) {
-            final ShardId shardId = entry.getKey();
-            final List<ActionRequest<?>> actionRequests = entry.getValue();
+            List<List<ActionRequest<?>>> subBatches = split(entry.getValue());
+            batches += subBatches.size();
+            shardIngests.add(new ShardIngest(entry.getKey(), subBatches));
+        }
+        final Completion completion = new Completion(ingestRequest, ingestResponse, listener, startTime, batches);
+        for (ShardIngest shardIngest : shardIngests) {
+            shardIngest.next(completion);
+        }
+    }
+
+    private List<List<ActionRequest<?>>> split(List<ActionRequest<?>> actionRequests) {
+        if (pipelinedBatchSize <= 0 || actionRequests.size() <= pipelinedBatchSize) {
+            return Collections.singletonList(actionRequests);
+        }
+        List<List<ActionRequest<?>>> subBatches = new ArrayList<>(actionRequests.size() / pipelinedBatchSize + 1);
+        for (int i = 0; i < actionRequests.size(); i += pipelinedBatchSize) {
+            int end = Math.min(i + pipelinedBatchSize, actionRequests.size());
+            subBatches.add(new ArrayList<>(actionRequests.subList(i, end)));
+        }
+        return subBatches;
+    }
+
+    private ShardId shardId(ClusterState clusterState, IndexRouting indexRouting, String concreteIndex,
+                            String type, String id, String routing) {
+        if (indexRouting != null) {
+            return indexRouting.shardId(type, id, routing);
+        }
+        return clusterService.operationRouting().indexShards(clusterState, concreteIndex, type, id, routing).shardId();
+    }
+
+    /**
+     * Counts the outstanding leader and replica operations of an ingest request and responds after the last one.
+     */
+    private static class Completion {
+        private final IngestRequest ingestRequest;
+        private final IngestResponse ingestResponse;
+        private final ActionListener<IngestResponse> listener;
+        private final long startTime;
+        private final AtomicInteger successCount = new AtomicInteger(0);
+        private final AtomicInteger responseCounter;
+
+        Completion(IngestRequest ingestRequest, IngestResponse ingestResponse, ActionListener<IngestResponse> listener,
+                   long startTime, int batches) {
+            this.ingestRequest = ingestRequest;
+            this.ingestResponse = ingestResponse;
+            this.listener = listener;
+            this.startTime = startTime;
+            this.responseCounter = new AtomicInteger(batches);
+        }
+
+        void expectReplica() {
+            responseCounter.incrementAndGet();
+        }
+
+        void countDown() {
+            if (responseCounter.decrementAndGet() == 0) {
+                long millis = Math.max(1, System.currentTimeMillis() - startTime);
+                ingestResponse.setSuccessSize(successCount.get()).setTookInMillis(millis);
+                listener.onResponse(ingestResponse);
+            }
+        }
+    }
+
+    /**
+     * The sub-batches of a shard. The sub-batches are executed on the leader one after another, to keep the
+     * order of the actions. As soon as the leader has applied a sub-batch, the sub-batch is sent to the replicas,
+     * while the leader continues with the next sub-batch.
+     */
+    private class ShardIngest {
+        private final ShardId shardId;
+        private final Iterator<List<ActionRequest<?>>> subBatches;
+
+        ShardIngest(ShardId shardId, List<List<ActionRequest<?>>> subBatches) {
+            this.shardId = shardId;
+            this.subBatches = subBatches.iterator();
+        }
+
+        void next(final Completion completion) {
+            if (!subBatches.hasNext()) {
+                return;
+            }
+            final IngestRequest ingestRequest = completion.ingestRequest;
+            final IngestResponse ingestResponse = completion.ingestResponse;
             final IngestLeaderShardRequest ingestLeaderShardRequest = new IngestLeaderShardRequest()
                     .setIngestId(ingestRequest.ingestId())
                     .setShardId(shardId)
-                    .setActionRequests(actionRequests)
+                    .setActionRequests(subBatches.next())
+                    .setCompress(ingestRequest.compress())
                     .timeout(ingestRequest.timeout())
                     .requiredConsistency(ingestRequest.requiredConsistency());
             leaderShardIngestAction.execute(ingestLeaderShardRequest, new ActionListener<IngestLeaderShardResponse>() {
                 @Override
                 public void onResponse(IngestLeaderShardResponse ingestLeaderShardResponse) {
-                    long millis = System.currentTimeMillis() - startTime;
                     ingestResponse.setIngestId(ingestRequest.ingestId());
                     ingestResponse.setLeaderResponse(ingestLeaderShardResponse);
-                    successCount.addAndGet(ingestLeaderShardResponse.getSuccessCount());
+                    completion.successCount.addAndGet(ingestLeaderShardResponse.getSuccessCount());
+                    for (IngestActionFailure failure : ingestLeaderShardResponse.getFailures()) {
+                        ingestResponse.addFailure(failure);
+                    }
                     int quorumShards = ingestLeaderShardResponse.getQuorumShards();
                     if (quorumShards < 0) {
                         ingestResponse.addFailure(new IngestActionFailure(ingestRequest.ingestId(), shardId, "quorum not reached for shard " + shardId));
                     } else if (quorumShards > 0) {
-                        responseCounter.incrementAndGet();
-                        final IngestReplicaShardRequest ingestReplicaShardRequest =
-                                new IngestReplicaShardRequest(ingestLeaderShardRequest.getIngestId(),
-                                        ingestLeaderShardRequest.getShardId(),
-                                        ingestLeaderShardRequest.getActionRequests());
-                        ingestReplicaShardRequest.timeout(ingestRequest.timeout());
-                        replicaShardIngestAction.execute(ingestReplicaShardRequest, new ActionListener<TransportReplicaShardIngestAction.ReplicaOperationResponse>() {
-                            @Override
-                            public void onResponse(TransportReplicaShardIngestAction.ReplicaOperationResponse response) {
-                                long millis = Math.max(1, System.currentTimeMillis() - startTime);
-                                ingestResponse.addReplicaResponses(response.responses());
-                                if (responseCounter.decrementAndGet() == 0) {
-                                    ingestResponse.setSuccessSize(successCount.get())
-                                            .setTookInMillis(millis);
-                                    listener.onResponse(ingestResponse);
-                                }
-                            }
-
-                            @Override
-                            public void onFailure(Throwable e) {
-                                long millis = Math.max(1, System.currentTimeMillis() - startTime);
-                                logger.error(e.getMessage(), e);
-                                ingestResponse.addFailure(new IngestActionFailure(ingestRequest.ingestId(), shardId, ExceptionsHelper.detailedMessage(e)));
-                                if (responseCounter.decrementAndGet() == 0) {
-                                    ingestResponse.setSuccessSize(successCount.get())
-                                            .setTookInMillis(millis);
-                                    listener.onResponse(ingestResponse);
-                                }
-                            }
-                        });
-                    }
-                    if (responseCounter.decrementAndGet() == 0) {
-                        ingestResponse.setSuccessSize(successCount.get()).setTookInMillis(millis);
-                        listener.onResponse(ingestResponse);
+                        completion.expectReplica();
+                        applyVersions(ingestLeaderShardRequest.getActionRequests(), ingestLeaderShardResponse.getVersions());
+                        replicate(ingestLeaderShardRequest, completion);
                     }
+                    next(completion);
+                    completion.countDown();
                 }
 
                 @Override
                 public void onFailure(Throwable e) {
-                    long millis = System.currentTimeMillis() - startTime;
                     logger.error(e.getMessage(), e);
                     ingestResponse.addFailure(new IngestActionFailure(-1L, shardId, ExceptionsHelper.detailedMessage(e)));
-                    if (responseCounter.decrementAndGet() == 0) {
-                        ingestResponse.setSuccessSize(successCount.get()).setTookInMillis(millis);
-                        listener.onResponse(ingestResponse);
-                    }
+                    next(completion);
+                    completion.countDown();
                 }
+            });
+        }
+
+        /**
+         * Apply the versions of the leader to the actions of this node, which are then forwarded to the replicas
+         * as they were received, without a copy of the documents coming back from the leader. The replicas apply
+         * the versions with the version type for replication, so a sub-batch which overtakes an earlier sub-batch
+         * of the same shard can not be overwritten by it.
+         */
+        private void applyVersions(List<ActionRequest<?>> actionRequests, long[] versions) {
+            for (int i = 0; i < versions.length && i < actionRequests.size(); i++) {
+                ActionRequest<?> actionRequest = actionRequests.get(i);
+                if (versions[i] == IngestLeaderShardResponse.FAILED) {
+                    actionRequests.set(i, null);
+                } else if (actionRequest instanceof IndexRequest) {
+                    IndexRequest indexRequest = (IndexRequest) actionRequest;
+                    indexRequest.versionType(indexRequest.versionType().versionTypeForReplicationAndRecovery());
+                    indexRequest.version(versions[i]);
+                } else if (actionRequest instanceof DeleteRequest) {
+                    DeleteRequest deleteRequest = (DeleteRequest) actionRequest;
+                    deleteRequest.versionType(deleteRequest.versionType().versionTypeForReplicationAndRecovery());
+                    deleteRequest.version(versions[i]);
+                }
+            }
+        }
 
+        private void replicate(IngestLeaderShardRequest ingestLeaderShardRequest, final Completion completion) {
+            final IngestRequest ingestRequest = completion.ingestRequest;
+            final IngestResponse ingestResponse = completion.ingestResponse;
+            final IngestReplicaShardRequest ingestReplicaShardRequest =
+                    new IngestReplicaShardRequest(ingestLeaderShardRequest.getIngestId(),
+                            ingestLeaderShardRequest.getShardId(),
+                            ingestLeaderShardRequest.getActionRequests());
+            ingestReplicaShardRequest.timeout(ingestRequest.timeout())
+                    .compress(ingestLeaderShardRequest.isCompress());
+            replicaShardIngestAction.execute(ingestReplicaShardRequest, new ActionListener<TransportReplicaShardIngestAction.ReplicaOperationResponse>() {
+                @Override
+                public void onResponse(TransportReplicaShardIngestAction.ReplicaOperationResponse response) {
+                    ingestResponse.addReplicaResponses(response.responses());
+                    completion.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    logger.error(e.getMessage(), e);
+                    ingestResponse.addFailure(new IngestActionFailure(ingestRequest.ingestId(), shardId, ExceptionsHelper.detailedMessage(e)));
+                    completion.countDown();
+                }
             });
         }
     }
 
+    /**
+     * The routing of an index, computed in the same way as the operation routing of the cluster,
+     * without looking up the index metadata for each document.
+     */
+    private static class IndexRouting {
+        private final IndexMetaData indexMetaData;
+        private final HashFunction hashFunction;
+        private final boolean useType;
+        private final boolean legacyMod;
+        private final ShardId[] shardIds;
+        private final Map<String, MappingMetaData> mappings = new HashMap<>();
+
+        IndexRouting(IndexMetaData indexMetaData) {
+            this.indexMetaData = indexMetaData;
+            this.hashFunction = indexMetaData.getRoutingHashFunction();
+            this.useType = indexMetaData.getRoutingUseType();
+            this.legacyMod = !indexMetaData.getCreationVersion().onOrAfter(Version.V_2_0_0_beta1);
+            this.shardIds = new ShardId[indexMetaData.getNumberOfShards()];
+            for (int i = 0; i < shardIds.length; i++) {
+                shardIds[i] = new ShardId(indexMetaData.getIndex(), i);
+            }
+        }
+
+        MappingMetaData mapping(String type) {
+            MappingMetaData mappingMd = mappings.get(type);
+            if (mappingMd == null && !mappings.containsKey(type)) {
+                mappingMd = indexMetaData.mappingOrDefault(type);
+                mappings.put(type, mappingMd);
+            }
+            return mappingMd;
+        }
+
+        @SuppressWarnings("deprecation")
+        ShardId shardId(String type, String id, String routing) {
+            int hash;
+            if (routing != null) {
+                hash = hashFunction.hash(routing);
+            } else if (useType) {
+                // legacy routing by type and id of indices created before 2.0, as in the operation routing
+                hash = hashFunction.hash(type, id);
+            } else {
+                hash = hashFunction.hash(id);
+            }
+            // indices created before 2.0 use the absolute remainder, which places some shards differently
+            int shard = legacyMod ? Math.abs(hash % shardIds.length) : MathUtils.mod(hash, shardIds.length);
+            return shardIds[shard];
+        }
+    }
+
     private static class ConcreteIndices  {
         private final ClusterState state;
         private final IndexNameExpressionResolver indexNameExpressionResolver;
         private final Map<String, String> indices = new HashMap<>();
+        private final Map<String, IndexRouting> routings = new HashMap<>();
+
+        /**
+         * Returns the cached routing of a concrete index.
+         *
+         * @param concreteIndex the concrete index
+         * @return the routing, or null if the index is not in the metadata
+         */
+        IndexRouting routing(String concreteIndex) {
+            IndexRouting routing = routings.get(concreteIndex);
+            if (routing == null) {
+                IndexMetaData indexMetaData = state.metaData().index(concreteIndex);
+                if (indexMetaData == null) {
+                    return null;
+                }
+                routing = new IndexRouting(indexMetaData);
+                routings.put(concreteIndex, routing);
+            }
+            return routing;
+        }
 
         ConcreteIndices(ClusterState state, IndexNameExpressionResolver indexNameExpressionResolver) {
             this.state = state;
             this.indexNameExpressionResolver = indexNameExpressionResolver;
         }
 
-        String getConcreteIndex(String indexOrAlias) {
-            return indices.get(indexOrAlias);
-        }
-
         String resolveIfAbsent(DocumentRequest<?> request) {
             String concreteIndex = indices.get(request.index());
             if (concreteIndex == null) {
@@ -1,20 +1,18 @@
 package org.xbib.elasticsearch.action.ingest.leader;
 
-import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.IndicesRequest;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.shard.ShardId;
 import org.xbib.elasticsearch.action.ingest.Consistency;
+import org.xbib.elasticsearch.action.ingest.IngestActionCodec;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.elasticsearch.action.ValidateActions.addValidationError;
@@ -33,7 +31,9 @@ public class IngestLeaderShardRequest extends ActionRequest<IngestLeaderShardReq
 
     private ShardId shardId;
 
-    private List<ActionRequest<?>> actionRequests = new LinkedList<ActionRequest<?>>();
+    private List<ActionRequest<?>> actionRequests = new ArrayList<ActionRequest<?>>();
+
+    private boolean compress;
 
     public IngestLeaderShardRequest() {
     }
@@ -66,6 +66,15 @@ public class IngestLeaderShardRequest extends ActionRequest<IngestLeaderShardReq
         return this;
     }
 
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public IngestLeaderShardRequest setCompress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
     public final boolean operationThreaded() {
         return threadedOperation;
     }
@@ -133,22 +142,7 @@ public class IngestLeaderShardRequest extends ActionRequest<IngestLeaderShardReq
         out.writeByte(requiredConsistency.id());
         out.writeLong(ingestId);
         shardId.writeTo(out);
-        out.writeVInt(actionRequests.size());
-        for (ActionRequest<?> actionRequest : actionRequests) {
-            if (actionRequest == null) {
-                out.writeBoolean(false);
-            } else {
-                out.writeBoolean(true);
-                if (actionRequest instanceof IndexRequest) {
-                    out.writeBoolean(true);
-                } else if (actionRequest instanceof DeleteRequest) {
-                    out.writeBoolean(false);
-                } else {
-                    throw new ElasticsearchException("action request not supported: " + actionRequest.getClass().getName());
-                }
-                actionRequest.writeTo(out);
-            }
-        }
+        IngestActionCodec.writeTo(out, actionRequests, actionRequests.size(), compress);
     }
 
     @Override
@@ -159,24 +153,7 @@ public class IngestLeaderShardRequest extends ActionRequest<IngestLeaderShardReq
         requiredConsistency = Consistency.fromId(in.readByte());
         ingestId = in.readLong();
         shardId = ShardId.readShardId(in);
-        int size = in.readVInt();
-        actionRequests = new LinkedList<ActionRequest<?>>();
-        for (int i = 0; i < size; i++) {
-            boolean exists = in.readBoolean();
-            if (exists) {
-                boolean b = in.readBoolean();
-                if (b) {
-                    IndexRequest indexRequest = new IndexRequest();
-                    indexRequest.readFrom(in);
-                    actionRequests.add(indexRequest);
-                } else {
-                    DeleteRequest deleteRequest = new DeleteRequest();
-                    deleteRequest.readFrom(in);
-                    actionRequests.add(deleteRequest);
-                }
-            } else {
-                actionRequests.add(null);
-            }
-        }
+        actionRequests = new ArrayList<>();
+        compress = IngestActionCodec.readFrom(in, actionRequests);
     }
 }
@@ -1,10 +1,6 @@
 package org.xbib.elasticsearch.action.ingest.leader;
 
-import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionResponse;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.index.shard.ShardId;
@@ -12,11 +8,16 @@ import org.xbib.elasticsearch.action.ingest.IngestActionFailure;
 
 import java.io.IOException;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class IngestLeaderShardResponse extends ActionResponse {
 
+    /**
+     * The version of an action which failed on the leader.
+     */
+    public static final long FAILED = Long.MIN_VALUE;
+
     private long ingestId;
 
     private ShardId shardId;
@@ -27,9 +28,9 @@ public class IngestLeaderShardResponse extends ActionResponse {
 
     private long tookInMillis;
 
-    private List<ActionRequest<?>> actionRequests = new LinkedList<ActionRequest<?>>();
+    private long[] versions = new long[0];
 
-    private List<IngestActionFailure> failures = Collections.synchronizedList(new LinkedList<IngestActionFailure>());
+    private List<IngestActionFailure> failures = Collections.synchronizedList(new ArrayList<IngestActionFailure>());
 
     public IngestLeaderShardResponse() {
         super();
@@ -80,12 +81,19 @@ public class IngestLeaderShardResponse extends ActionResponse {
         return this;
     }
 
-    public List<ActionRequest<?>> getActionRequests() {
-        return actionRequests;
+    /**
+     * The versions of the actions after the leader operation, in the order of the leader shard request.
+     * Failed actions have the version {@link #FAILED}. Only the versions are sent back, the coordinating node
+     * forwards its own copy of the actions to the replicas.
+     *
+     * @return the versions
+     */
+    public long[] getVersions() {
+        return versions;
     }
 
-    public IngestLeaderShardResponse setActionRequests(List<ActionRequest<?>> actionRequests) {
-        this.actionRequests = actionRequests;
+    public IngestLeaderShardResponse setVersions(long[] versions) {
+        this.versions = versions;
         return this;
     }
 
@@ -108,27 +116,13 @@ public class IngestLeaderShardResponse extends ActionResponse {
         }
         successCount = in.readVInt();
         quorumShards = in.readVInt();
-        actionRequests = new LinkedList<>();
         int size = in.readVInt();
+        versions = new long[size];
         for (int i = 0; i < size; i++) {
-            boolean exists = in.readBoolean();
-            if (exists) {
-                boolean b = in.readBoolean();
-                if (b) {
-                    IndexRequest indexRequest = new IndexRequest();
-                    indexRequest.readFrom(in);
-                    actionRequests.add(indexRequest);
-                } else {
-                    DeleteRequest deleteRequest = new DeleteRequest();
-                    deleteRequest.readFrom(in);
-                    actionRequests.add(deleteRequest);
-                }
-            } else {
-                actionRequests.add(null);
-            }
+            versions[i] = in.readLong();
         }
-        failures = new LinkedList<>();
         size = in.readVInt();
+        failures = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
             failures.add(IngestActionFailure.from(in));
         }
@@ -147,21 +141,9 @@ public class IngestLeaderShardResponse extends ActionResponse {
         }
         out.writeVInt(successCount);
         out.writeVInt(quorumShards);
-        out.writeVInt(actionRequests.size());
-        for (ActionRequest<?> actionRequest : actionRequests) {
-            if (actionRequest == null) {
-                out.writeBoolean(false);
-            } else {
-                out.writeBoolean(true);
-                if (actionRequest instanceof IndexRequest) {
-                    out.writeBoolean(true);
-                } else if (actionRequest instanceof DeleteRequest) {
-                    out.writeBoolean(false);
-                } else {
-                    throw new ElasticsearchException("action request not supported: " + actionRequest.getClass().getName());
-                }
-                actionRequest.writeTo(out);
-            }
+        out.writeVInt(versions.length);
+        for (long version : versions) {
+            out.writeLong(version);
         }
         out.writeVInt(failures.size());
         for (IngestActionFailure f : failures) {
@@ -26,13 +26,13 @@ import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Streamable;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
-import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.engine.Engine;
 import org.elasticsearch.index.mapper.SourceToParse;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.translog.Translog;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.node.NodeClosedException;
 import org.elasticsearch.rest.RestStatus;
@@ -49,7 +49,7 @@ import org.xbib.elasticsearch.action.ingest.IngestAction;
 import org.xbib.elasticsearch.action.ingest.IngestActionFailure;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -81,7 +81,7 @@ public class TransportLeaderShardIngestAction
     }
 
     protected String executor() {
-        return ThreadPool.Names.BULK;
+        return IngestAction.EXECUTOR;
     }
 
     protected TransportRequestOptions transportOptions() {
@@ -116,53 +116,71 @@ public class TransportLeaderShardIngestAction
         final long t0 = shardRequest.startTime();
         final IngestLeaderShardRequest request = shardRequest.request();
         int successCount = 0;
-        List<IngestActionFailure> failures = new LinkedList<>();
-        int size = request.getActionRequests().size();
+        List<IngestActionFailure> failures = new ArrayList<>();
+        List<ActionRequest<?>> actionRequests = request.getActionRequests();
+        int size = actionRequests.size();
         long[] versions = new long[size];
-        IndexService indexService = indicesService.indexServiceSafe(request.index());
+        VersionType[] versionTypes = new VersionType[size];
+        IndexShard indexShard = indicesService.indexServiceSafe(request.index()).shardSafe(shardRequest.shardId());
+        // the translog is synced once for the whole batch, up to the highest location written
+        Translog.Location location = null;
         for (int i = 0; i < size; i++) {
-            ActionRequest<?> actionRequest = request.getActionRequests().get(i);
+            ActionRequest<?> actionRequest = actionRequests.get(i);
             if (actionRequest instanceof IndexRequest) {
                 try {
                     IndexRequest indexRequest = (IndexRequest) actionRequest;
-                    long version = indexOperationOnLeader(indexRequest, request);
                     versions[i] = indexRequest.version();
-                    indexRequest.version(indexRequest.version() == Versions.MATCH_ANY ? Versions.MATCH_ANY : version);
+                    versionTypes[i] = indexRequest.versionType();
+                    Engine.IndexingOperation operation = indexOperationOnLeader(indexShard, indexRequest);
+                    if (operation == null) {
+                        continue;
+                    }
+                    location = maxLocation(location, operation.getTranslogLocation());
+                    // the replicas apply the version assigned by the leader, so sub-batches may arrive in any order
+                    indexRequest.versionType(indexRequest.versionType().versionTypeForReplicationAndRecovery());
+                    indexRequest.version(operation.version());
                     successCount++;
                 } catch (Throwable e) {
                     if (retryLeaderException(e)) {
-                        for (int j = 0; j < i; j++) {
-                            ((IndexRequest) request.getActionRequests().get(j)).version(versions[j]);
-                        }
+                        restoreVersions(actionRequests, versions, versionTypes, i);
                         logger.error(e.getMessage(), e);
                         throw new ElasticsearchException(e.getMessage(), e);
                     }
                     logger.error("[{}][{}] failed to execute ingest (index) {}", e, request.index(), shardRequest.shardId(), actionRequest);
                     failures.add(new IngestActionFailure(request.getIngestId(), request.getShardId(), ExceptionsHelper.detailedMessage(e)));
-                    request.getActionRequests().set(i, null);
+                    actionRequests.set(i, null);
                 }
             } else if (actionRequest instanceof DeleteRequest) {
                 try {
-                    IndexShard indexShard = indexService.shardSafe(shardRequest.shardId());
                     DeleteRequest deleteRequest = (DeleteRequest) actionRequest;
+                    versions[i] = deleteRequest.version();
+                    versionTypes[i] = deleteRequest.versionType();
                     Engine.Delete delete = indexShard.prepareDeleteOnPrimary(deleteRequest.type(), deleteRequest.id(), deleteRequest.version(), deleteRequest.versionType());
                     indexShard.delete(delete);
-                    deleteRequest.version(deleteRequest.version() == Versions.MATCH_ANY ? Versions.MATCH_ANY : delete.version());
+                    location = maxLocation(location, delete.getTranslogLocation());
+                    deleteRequest.versionType(deleteRequest.versionType().versionTypeForReplicationAndRecovery());
+                    deleteRequest.version(delete.version());
                     successCount++;
                 } catch (Throwable e) {
                     if (retryLeaderException(e)) {
-                        for (int j = 0; j < i; j++) {
-                            ((DeleteRequest) request.getActionRequests().get(j)).version(versions[j]);
-                        }
+                        restoreVersions(actionRequests, versions, versionTypes, i);
                         logger.error(e.getMessage(), e);
                         throw new ElasticsearchException(e.getMessage(), e);
                     }
                     logger.error("[{}][{}] failed to execute ingest (delete) {}", e, request.index(), shardRequest.shardId(), actionRequest);
                     failures.add(new IngestActionFailure(request.getIngestId(), request.getShardId(), ExceptionsHelper.detailedMessage(e)));
-                    request.getActionRequests().set(i, null);
+                    actionRequests.set(i, null);
                 }
             }
         }
+        if (location != null && indexShard.getTranslogDurability() == Translog.Durabilty.REQUEST) {
+            try {
+                indexShard.sync(location);
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+                throw new ElasticsearchException("failed to sync translog of " + request.getShardId(), e);
+            }
+        }
         int quorumShards = findQuorum(clusterState, shards(clusterState, request), request);
         return new IngestLeaderShardResponse()
                 .setTookInMillis(System.currentTimeMillis() - t0)
@@ -170,12 +188,48 @@ public class TransportLeaderShardIngestAction
                 .setShardId(request.getShardId())
                 .setSuccessCount(successCount)
                 .setQuorumShards(quorumShards)
-                .setActionRequests(request.getActionRequests())
+                .setVersions(versionsOf(actionRequests))
                 .setFailures(failures);
     }
 
-    private long indexOperationOnLeader(IndexRequest indexRequest,
-                                        IngestLeaderShardRequest request) {
+    private static long[] versionsOf(List<ActionRequest<?>> actionRequests) {
+        long[] versions = new long[actionRequests.size()];
+        for (int i = 0; i < versions.length; i++) {
+            ActionRequest<?> actionRequest = actionRequests.get(i);
+            if (actionRequest instanceof IndexRequest) {
+                versions[i] = ((IndexRequest) actionRequest).version();
+            } else if (actionRequest instanceof DeleteRequest) {
+                versions[i] = ((DeleteRequest) actionRequest).version();
+            } else {
+                versions[i] = IngestLeaderShardResponse.FAILED;
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Restore the versions and version types of the requests before a retry of the leader operation.
+     */
+    private static void restoreVersions(List<ActionRequest<?>> actionRequests, long[] versions,
+                                        VersionType[] versionTypes, int end) {
+        for (int j = 0; j < end; j++) {
+            ActionRequest<?> actionRequest = actionRequests.get(j);
+            if (actionRequest instanceof IndexRequest) {
+                ((IndexRequest) actionRequest).version(versions[j]).versionType(versionTypes[j]);
+            } else if (actionRequest instanceof DeleteRequest) {
+                ((DeleteRequest) actionRequest).version(versions[j]).versionType(versionTypes[j]);
+            }
+        }
+    }
+
+    private static Translog.Location maxLocation(Translog.Location current, Translog.Location next) {
+        if (current == null || (next != null && next.compareTo(current) > 0)) {
+            return next;
+        }
+        return current;
+    }
+
+    private Engine.IndexingOperation indexOperationOnLeader(IndexShard indexShard, IndexRequest indexRequest) {
         SourceToParse sourceToParse = SourceToParse.source(SourceToParse.Origin.PRIMARY, indexRequest.source())
                 .type(indexRequest.type())
                 .id(indexRequest.id())
@@ -183,14 +237,13 @@ public class TransportLeaderShardIngestAction
                 .parent(indexRequest.parent())
                 .timestamp(indexRequest.timestamp())
                 .ttl(indexRequest.ttl());
-        IndexShard indexShard = indicesService.indexServiceSafe(request.index()).shardSafe(request.getShardId().id());
         if (indexRequest.opType() == IndexRequest.OpType.INDEX) {
             Engine.Index index = indexShard.prepareIndexOnPrimary(sourceToParse,
                     indexRequest.version(),
                     indexRequest.versionType(),
                     false);
             indexShard.index(index);
-            return index.version();
+            return index;
         } else if (indexRequest.opType() == IndexRequest.OpType.CREATE) {
             Engine.Create create = indexShard.prepareCreateOnPrimary(sourceToParse,
                     indexRequest.version(),
@@ -198,12 +251,11 @@ public class TransportLeaderShardIngestAction
                     false,
                     indexRequest.autoGeneratedId());
             indexShard.create(create);
-            return create.version();
+            return create;
         } else {
             logger.error("unknown op type " + indexRequest.opType());
-            return 0;
+            return null;
         }
-
     }
 
     @Override
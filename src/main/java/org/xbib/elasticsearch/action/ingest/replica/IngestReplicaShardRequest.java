@@ -1,18 +1,16 @@
 package org.xbib.elasticsearch.action.ingest.replica;
 
-import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionRequestValidationException;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.shard.ShardId;
+import org.xbib.elasticsearch.action.ingest.IngestActionCodec;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -32,7 +30,9 @@ public class IngestReplicaShardRequest extends ActionRequest<IngestReplicaShardR
 
     private ShardId shardId;
 
-    private List<ActionRequest<?>> actionRequests = new LinkedList<>();
+    private List<ActionRequest<?>> actionRequests = new ArrayList<>();
+
+    private boolean compress;
 
     public IngestReplicaShardRequest() {
     }
@@ -56,6 +56,15 @@ public class IngestReplicaShardRequest extends ActionRequest<IngestReplicaShardR
         return actionRequests;
     }
 
+    public boolean compress() {
+        return compress;
+    }
+
+    public IngestReplicaShardRequest compress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
     public final boolean operationThreaded() {
         return threadedOperation;
     }
@@ -110,22 +119,7 @@ public class IngestReplicaShardRequest extends ActionRequest<IngestReplicaShardR
         timeout.writeTo(out);
         out.writeLong(ingestId);
         shardId.writeTo(out);
-        out.writeVInt(actionRequests.size());
-        for (ActionRequest<?> actionRequest : actionRequests) {
-            if (actionRequest == null) {
-                out.writeBoolean(false);
-                continue;
-            }
-            out.writeBoolean(true);
-            if (actionRequest instanceof IndexRequest) {
-                out.writeBoolean(true);
-            } else if (actionRequest instanceof DeleteRequest) {
-                out.writeBoolean(false);
-            } else {
-                throw new ElasticsearchException("action request not supported: " + actionRequest.getClass().getName());
-            }
-            actionRequest.writeTo(out);
-        }
+        IngestActionCodec.writeTo(out, actionRequests, actionRequests.size(), compress);
     }
 
     @Override
@@ -135,24 +129,7 @@ public class IngestReplicaShardRequest extends ActionRequest<IngestReplicaShardR
         timeout = TimeValue.readTimeValue(in);
         ingestId = in.readLong();
         shardId = ShardId.readShardId(in);
-        int size = in.readVInt();
-        actionRequests = new LinkedList<>();
-        for (int i = 0; i < size; i++) {
-            boolean exists = in.readBoolean();
-            if (exists) {
-                boolean b = in.readBoolean();
-                if (b) {
-                    IndexRequest indexRequest = new IndexRequest();
-                    indexRequest.readFrom(in);
-                    actionRequests.add(indexRequest);
-                } else {
-                    DeleteRequest deleteRequest = new DeleteRequest();
-                    deleteRequest.readFrom(in);
-                    actionRequests.add(deleteRequest);
-                }
-            } else {
-                actionRequests.add(null);
-            }
-        }
+        actionRequests = new ArrayList<>();
+        compress = IngestActionCodec.readFrom(in, actionRequests);
     }
 }
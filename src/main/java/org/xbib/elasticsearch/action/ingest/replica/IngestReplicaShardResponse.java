@@ -7,7 +7,7 @@ import org.elasticsearch.index.shard.ShardId;
 import org.xbib.elasticsearch.action.ingest.IngestActionFailure;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class IngestReplicaShardResponse extends ActionResponse {
@@ -22,7 +22,7 @@ public class IngestReplicaShardResponse extends ActionResponse {
 
     protected long tookInMillis;
 
-    protected List<IngestActionFailure> failures = new LinkedList<>();
+    protected List<IngestActionFailure> failures = new ArrayList<>();
 
     public IngestReplicaShardResponse() {
     }
@@ -68,8 +68,8 @@ public class IngestReplicaShardResponse extends ActionResponse {
         replicaLevel = in.readVInt();
         successSize = in.readVInt();
         tookInMillis = in.readLong();
-        failures = new LinkedList<>();
         int size = in.readVInt();
+        failures = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
             failures.add(IngestActionFailure.from(in));
         }
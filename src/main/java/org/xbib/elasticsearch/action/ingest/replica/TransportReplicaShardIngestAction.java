@@ -49,6 +49,7 @@ import org.xbib.elasticsearch.action.ingest.IngestAction;
 import org.xbib.elasticsearch.action.ingest.IngestActionFailure;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
@@ -90,7 +91,7 @@ public class TransportReplicaShardIngestAction
     }
 
     protected String executor() {
-        return ThreadPool.Names.BULK;
+        return IngestAction.EXECUTOR;
     }
 
     protected TransportRequestOptions transportOptions() {
@@ -126,10 +127,8 @@ public class TransportReplicaShardIngestAction
         final IngestReplicaShardRequest request = shardRequest.request();
         final IndexShard indexShard = indicesService.indexServiceSafe(shardRequest.request().index()).shardSafe(shardRequest.shardId());
         int successCount = 0;
-        List<IngestActionFailure> failure = new LinkedList<>();
-        int size = request.actionRequests().size();
-        for (int i = 0; i < size; i++) {
-            ActionRequest<?> actionRequest = request.actionRequests().get(i);
+        List<IngestActionFailure> failure = new ArrayList<>();
+        for (ActionRequest<?> actionRequest : request.actionRequests()) {
             if (actionRequest == null) {
                 continue;
             }
@@ -138,6 +137,9 @@ public class TransportReplicaShardIngestAction
                 try {
                     indexOperationOnReplica(indexShard, indexRequest);
                     successCount++;
+                } catch (VersionConflictEngineException e) {
+                    // a newer version from a later sub-batch was applied first
+                    successCount++;
                 } catch (Throwable e) {
                     failure.add(new IngestActionFailure(request.ingestId(), request.shardId(), ExceptionsHelper.detailedMessage(e)));
                 }
@@ -150,6 +152,9 @@ public class TransportReplicaShardIngestAction
                             deleteRequest.versionType());
                     indexShard.delete(delete);
                     successCount++;
+                } catch (VersionConflictEngineException e) {
+                    // a newer version from a later sub-batch was applied first
+                    successCount++;
                 } catch (Throwable e) {
                     failure.add(new IngestActionFailure(request.ingestId(), request.shardId(), ExceptionsHelper.detailedMessage(e)));
                 }
@@ -22,6 +22,7 @@ public class ElasticsearchIngestMetric implements IngestMetric {
     private final Count submitted = new ElasticsearchCounterMetric();
     private final Count succeeded = new ElasticsearchCounterMetric();
     private final Count failed = new ElasticsearchCounterMetric();
+    private volatile long effectiveBulkSize = -1L;
     private AcknowledgeMetric acknowledgeMetric;
     private Long started;
     private Long stopped;
@@ -118,6 +119,16 @@ public class ElasticsearchIngestMetric implements IngestMetric {
         return stopBulkRefreshIntervals;
     }
 
+    @Override
+    public long getEffectiveBulkSize() {
+        return effectiveBulkSize;
+    }
+
+    @Override
+    public void setEffectiveBulkSize(long bulkSize) {
+        this.effectiveBulkSize = bulkSize;
+    }
+
     @Override
     public AcknowledgeMetric getAcknowledgeMetric() {
         return acknowledgeMetric;
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A budget of bytes which are accepted by a bulk processor but not yet answered by the cluster.
+ *
+ * Bytes are reserved when a request is added and released when the bulk request carrying it has completed.
+ * If the budget is exhausted, a producer either waits for a limited time or fails immediately, depending on
+ * the mode. A request is always admitted when nothing is reserved, so a single request larger than the budget
+ * can not block forever.
+ */
+public class BackPressure {
+
+    /**
+     * What to do when the budget is exhausted.
+     */
+    public enum Mode {
+        /**
+         * Wait until enough bytes are released, or until the timeout elapsed.
+         */
+        BLOCK,
+        /**
+         * Fail immediately.
+         */
+        FAIL
+    }
+
+    /**
+     * Same as the request overhead in {@link org.elasticsearch.action.bulk.BulkRequest}.
+     */
+    private static final int REQUEST_OVERHEAD = 50;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private final long maxBytes;
+
+    private final Mode mode;
+
+    private final long timeoutNanos;
+
+    private long bytes;
+
+    /**
+     * Create a back pressure budget.
+     *
+     * @param maxInFlight the maximum volume of accepted but unanswered requests
+     * @param mode        the mode to apply when the budget is exhausted
+     * @param timeout     the maximum time to wait in {@link Mode#BLOCK} mode
+     */
+    public BackPressure(ByteSizeValue maxInFlight, Mode mode, TimeValue timeout) {
+        if (maxInFlight.bytes() <= 0L) {
+            throw new IllegalArgumentException("in-flight budget must be positive: " + maxInFlight);
+        }
+        this.maxBytes = maxInFlight.bytes();
+        this.mode = mode;
+        this.timeoutNanos = timeout != null ? timeout.nanos() : 0L;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of bytes currently reserved.
+     *
+     * @return the reserved bytes
+     */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve bytes without waiting.
+     *
+     * @param n the number of bytes
+     * @return true if the bytes are reserved, false if the budget is exhausted
+     */
+    public boolean tryReserve(long n) {
+        lock.lock();
+        try {
+            if (!admits(n)) {
+                return false;
+            }
+            bytes += n;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve bytes according to the mode.
+     *
+     * @param n the number of bytes
+     * @throws EsRejectedExecutionException if the budget is exhausted, the timeout elapsed, or the wait was interrupted
+     */
+    public void reserve(long n) {
+        lock.lock();
+        try {
+            if (mode == Mode.BLOCK) {
+                long nanos = timeoutNanos;
+                while (!admits(n)) {
+                    if (nanos <= 0L) {
+                        throw new EsRejectedExecutionException("in-flight budget of " + new ByteSizeValue(maxBytes)
+                                + " exhausted, timeout of " + TimeValue.timeValueNanos(timeoutNanos) + " elapsed");
+                    }
+                    nanos = released.awaitNanos(nanos);
+                }
+            } else if (!admits(n)) {
+                throw new EsRejectedExecutionException("in-flight budget of " + new ByteSizeValue(maxBytes) + " exhausted");
+            }
+            bytes += n;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EsRejectedExecutionException("interrupted while waiting for in-flight budget");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjust a reservation without waiting, e.g. after the real size of a request became known.
+     *
+     * @param delta the number of bytes to add to the reservation, may be negative
+     */
+    public void adjust(long delta) {
+        if (delta < 0L) {
+            release(-delta);
+        } else if (delta > 0L) {
+            lock.lock();
+            try {
+                bytes += delta;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Release reserved bytes.
+     *
+     * @param n the number of bytes
+     */
+    public void release(long n) {
+        lock.lock();
+        try {
+            bytes = Math.max(0L, bytes - n);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean admits(long n) {
+        return bytes == 0L || bytes + n <= maxBytes;
+    }
+
+    /**
+     * Estimate the size of a request in the same way as a bulk request does.
+     *
+     * @param request the request
+     * @return the estimated size in bytes
+     */
+    public static long estimateSize(ActionRequest request) {
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            return (indexRequest.source() != null ? indexRequest.source().length() : 0) + REQUEST_OVERHEAD;
+        } else if (request instanceof DeleteRequest) {
+            return REQUEST_OVERHEAD;
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            long size = REQUEST_OVERHEAD;
+            if (updateRequest.doc() != null && updateRequest.doc().source() != null) {
+                size += updateRequest.doc().source().length();
+            }
+            if (updateRequest.upsertRequest() != null && updateRequest.upsertRequest().source() != null) {
+                size += updateRequest.upsertRequest().source().length();
+            }
+            if (updateRequest.script() != null) {
+                size += 100;
+            }
+            return size;
+        }
+        return REQUEST_OVERHEAD;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.ActionRequest;
+
+/**
+ * Assigns requests of a bulk processor to partitions. Requests of the same partition are accumulated
+ * in the same bulk request.
+ */
+public interface BulkPartitioner {
+
+    /**
+     * Returns the key of the partition of a request. Keys must implement equals and hashCode.
+     *
+     * @param request the request
+     * @return the partition key
+     */
+    Object partition(ActionRequest request);
+}
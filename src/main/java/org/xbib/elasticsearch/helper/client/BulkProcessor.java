@@ -1,8 +1,12 @@
 package org.xbib.elasticsearch.helper.client;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionWriteResponse;
+import org.elasticsearch.action.DocumentRequest;
 import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
@@ -13,14 +17,20 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.common.util.concurrent.EsExecutors;
-import org.elasticsearch.common.util.concurrent.FutureUtils;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.Closeable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.Semaphore;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -76,6 +86,16 @@ public class BulkProcessor implements Closeable {
         private int bulkActions = 1000;
         private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
         private TimeValue flushInterval = null;
+        private int stripes = 0;
+        private int minConcurrentRequests = -1;
+        private int maxConcurrentRequests = -1;
+        private BulkSizePolicy bulkSizePolicy = null;
+        private BackPressure backPressure = null;
+        private BulkRetryPolicy retryPolicy = null;
+        private BytesBufferPool bufferPool = null;
+        private BulkPartitioner partitioner = null;
+        private int lanes = 0;
+        private FlushTimer flushTimer = null;
 
         /**
          * Creates a builder of bulk processor with the client to use and the listener that will be used
@@ -144,12 +164,146 @@ public class BulkProcessor implements Closeable {
             return this;
         }
 
+        /**
+         * Sets the timer for the flush interval. Defaults to the timer shared by all processors.
+         * @param flushTimer the flush timer
+         * @return this builder
+         */
+        public Builder setFlushTimer(FlushTimer flushTimer) {
+            this.flushTimer = flushTimer;
+            return this;
+        }
+
+        /**
+         * Sets the number of accumulation stripes for concurrent producers. Defaults to <tt>0</tt>, which means
+         * that all producers add to a single bulk request under the monitor of the bulk processor.
+         * With a positive value, each producer thread fills the stripe selected by its thread ID, and full
+         * bulk requests are handed over to the bulk request handler through a lock-free queue.
+         * @param stripes the number of stripes
+         * @return this builder
+         */
+        public Builder setStripes(int stripes) {
+            this.stripes = stripes;
+            return this;
+        }
+
+        /**
+         * Enables an adaptive number of concurrent requests. The number set by {@link #setConcurrentRequests(int)}
+         * is the initial limit, the limit is adjusted at runtime between the given bounds by the round trip
+         * times of the bulk requests and by rejections of the cluster. Has no effect if the number of concurrent
+         * requests is <tt>0</tt>.
+         * @param minConcurrentRequests the minimum number of concurrent requests
+         * @param maxConcurrentRequests the maximum number of concurrent requests
+         * @return this builder
+         */
+        public Builder setAdaptiveConcurrency(int minConcurrentRequests, int maxConcurrentRequests) {
+            this.minConcurrentRequests = minConcurrentRequests;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * Sets a policy which adjusts the flush threshold in bytes at runtime, replacing the fixed size set by
+         * {@link #setBulkSize(org.elasticsearch.common.unit.ByteSizeValue)}. The number of actions set by
+         * {@link #setBulkActions(int)} still applies as an upper bound, set it to <tt>-1</tt> to flush by size only.
+         * @param bulkSizePolicy the bulk size policy
+         * @return this builder
+         */
+        public Builder setBulkSizePolicy(BulkSizePolicy bulkSizePolicy) {
+            this.bulkSizePolicy = bulkSizePolicy;
+            return this;
+        }
+
+        /**
+         * Sets a back pressure budget for the volume of requests which are added but not yet answered by the cluster.
+         * If the budget is exhausted, {@link BulkProcessor#add(ActionRequest)} waits or fails according to the
+         * mode of the budget, and {@link BulkProcessor#tryAdd(ActionRequest)} returns <tt>false</tt>.
+         * Defaults to not set.
+         * @param backPressure the back pressure budget
+         * @return this builder
+         */
+        public Builder setBackPressure(BackPressure backPressure) {
+            this.backPressure = backPressure;
+            return this;
+        }
+
+        /**
+         * Sets a policy for retrying bulk items which were rejected by the cluster. Only the rejected items are
+         * sent again, and the listener is notified once with the merged response after the last retry.
+         * Defaults to not set.
+         * @param retryPolicy the retry policy
+         * @return this builder
+         */
+        public Builder setRetryPolicy(BulkRetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets a pool of byte buffers and enables pre-serialized accumulation. Index and delete requests are encoded
+         * in the bulk format into a pooled buffer when they are added, and the bulk request is built from the
+         * buffer without copying the sources when it is executed. The buffer returns to the pool after the bulk
+         * request has completed. Update requests are not encoded, they are kept aside like payloads and inserted
+         * in their position when the bulk request is built. Headers of single requests are not supported in this
+         * mode. Defaults to not set.
+         * @param bufferPool the buffer pool
+         * @return this builder
+         */
+        public Builder setBufferPool(BytesBufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * Sets a partitioner which assigns each request to a partition, e.g. the shard or the node of the
+         * primary shard of the document. Each partition accumulates its own bulk request, and the flush thresholds
+         * apply to each partition, so a bulk request does not wait for shards it does not target.
+         * Can not be combined with {@link #setStripes(int)}. Defaults to not set.
+         * @param partitioner the partitioner
+         * @return this builder
+         */
+        public Builder setPartitioner(BulkPartitioner partitioner) {
+            this.partitioner = partitioner;
+            return this;
+        }
+
+        /**
+         * Sets the number of ordered lanes. Requests are assigned to a lane by the hash of index and ID, and each
+         * lane has at most one bulk request in flight, including its retries. Operations on the same document are
+         * therefore executed in the order they were added, while the lanes execute in parallel up to the number
+         * of concurrent requests. Can not be combined with {@link #setStripes(int)} or
+         * {@link #setPartitioner(BulkPartitioner)}. Defaults to <tt>0</tt>, which means no ordering.
+         * @param lanes the number of lanes
+         * @return this builder
+         */
+        public Builder setOrderedLanes(int lanes) {
+            this.lanes = lanes;
+            return this;
+        }
+
         /**
          * Builds a new bulk processor.
          * @return a bulk processor
          */
         public BulkProcessor build() {
-            return new BulkProcessor(client, listener, name, concurrentRequests, bulkActions, bulkSize, flushInterval);
+            if ((partitioner != null ? 1 : 0) + (stripes > 0 ? 1 : 0) + (lanes > 0 ? 1 : 0) > 1) {
+                throw new IllegalArgumentException("stripes, partitioner, and ordered lanes can not be combined");
+            }
+            long maxBulkSize = bulkSizePolicy != null ? bulkSizePolicy.getMaxBulkSize() : bulkSize.bytes();
+            if (backPressure != null && maxBulkSize > 0L && backPressure.getMaxBytes() < maxBulkSize) {
+                // a budget below the bulk size would wait for the flush interval instead of filling a bulk request
+                throw new IllegalArgumentException("in-flight budget of " + new ByteSizeValue(backPressure.getMaxBytes())
+                        + " is smaller than the bulk size of " + new ByteSizeValue(maxBulkSize));
+            }
+            ConcurrencyLimiter limiter = null;
+            if (concurrentRequests > 0) {
+                limiter = minConcurrentRequests > 0 ?
+                        ConcurrencyLimiter.adaptive(concurrentRequests, minConcurrentRequests, maxConcurrentRequests) :
+                        new ConcurrencyLimiter(concurrentRequests);
+            }
+            return new BulkProcessor(client, listener, name, limiter, bulkActions, bulkSize, bulkSizePolicy,
+                    backPressure, retryPolicy, bufferPool, lanes > 0 ? new LanePartitioner(lanes) : partitioner,
+                    lanes > 0, flushInterval, flushTimer != null ? flushTimer : FlushTimer.shared(), stripes);
         }
     }
 
@@ -160,39 +314,89 @@ public class BulkProcessor implements Closeable {
         return new Builder(client, listener);
     }
 
+    private static final String BUFFER_CONTEXT_KEY = "bulk_processor_buffer";
+    private static final String SIZE_CONTEXT_KEY = "bulk_processor_size";
+    private static final String LANE_CONTEXT_KEY = "bulk_processor_lane";
+    private static final String FAILURE_CONTEXT_KEY = "bulk_processor_failure";
+
     private final int bulkActions;
     private final long bulkSize;
+    private final BulkSizePolicy bulkSizePolicy;
+    private final BackPressure backPressure;
+    private final BulkRetryPolicy retryPolicy;
+    private final BytesBufferPool bufferPool;
 
-    private final ScheduledThreadPoolExecutor scheduler;
-    private final ScheduledFuture scheduledFuture;
+    private final FlushTimer.Registration flushRegistration;
 
     private final AtomicLong executionIdGen = new AtomicLong();
 
-    private BulkRequest bulkRequest;
+    private Batch batch;
     private final BulkRequestHandler bulkRequestHandler;
 
+    private final Stripe[] stripes;
+    private final BulkPartitioner partitioner;
+    private final ConcurrentMap<Object, Stripe> partitions;
+    private final boolean ordered;
+    private final ThreadPool threadPool;
+    private final Object laneMonitor = new Object();
+    private int laneRequests;
+    private final ConcurrentLinkedQueue<BulkRequest> readyRequests;
+
     private volatile boolean closed = false;
 
-    BulkProcessor(Client client, Listener listener, @Nullable String name, int concurrentRequests, int bulkActions, ByteSizeValue bulkSize, @Nullable TimeValue flushInterval) {
+    BulkProcessor(Client client, Listener listener, @Nullable String name, @Nullable ConcurrencyLimiter limiter, int bulkActions, ByteSizeValue bulkSize,
+                  @Nullable BulkSizePolicy bulkSizePolicy, @Nullable BackPressure backPressure,
+                  @Nullable BulkRetryPolicy retryPolicy, @Nullable BytesBufferPool bufferPool,
+                  @Nullable BulkPartitioner partitioner, boolean ordered, @Nullable TimeValue flushInterval,
+                  FlushTimer flushTimer, int stripes) {
         this.bulkActions = bulkActions;
         this.bulkSize = bulkSize.bytes();
+        this.bulkSizePolicy = bulkSizePolicy;
+        this.backPressure = backPressure;
+        this.retryPolicy = retryPolicy;
+        this.bufferPool = bufferPool;
+        this.ordered = ordered;
 
-        this.bulkRequest = new BulkRequest();
-        this.bulkRequestHandler = concurrentRequests == 0 ?
+        this.batch = new Batch();
+        this.readyRequests = new ConcurrentLinkedQueue<>();
+        if (stripes > 0) {
+            this.stripes = new Stripe[stripes];
+            for (int i = 0; i < stripes; i++) {
+                this.stripes[i] = new Stripe();
+            }
+        } else {
+            this.stripes = null;
+        }
+        this.partitioner = partitioner;
+        this.partitions = partitioner != null ? new ConcurrentHashMap<Object, Stripe>() : null;
+        this.threadPool = client.threadPool();
+        this.bulkRequestHandler = limiter == null ?
                 new SyncBulkRequestHandler(client, listener) :
-                new AsyncBulkRequestHandler(client, listener, concurrentRequests);
+                new AsyncBulkRequestHandler(client, listener, limiter);
 
         if (flushInterval != null) {
-            this.scheduler = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, EsExecutors.daemonThreadFactory(client.settings(), (name != null ? "[" + name + "]" : "") + "bulk_processor"));
-            this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
-            this.scheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-            this.scheduledFuture = this.scheduler.scheduleWithFixedDelay(new Flush(), flushInterval.millis(), flushInterval.millis(), TimeUnit.MILLISECONDS);
+            this.flushRegistration = flushTimer.register(new Flush(), flushInterval, threadPool.generic());
         } else {
-            this.scheduler = null;
-            this.scheduledFuture = null;
+            this.flushRegistration = null;
         }
     }
 
+    /**
+     * Returns the current limit of concurrent requests, which may change at runtime if adaptive concurrency is enabled.
+     * @return the current limit of concurrent requests, or 0 if requests are executed synchronously
+     */
+    public int getConcurrencyLimit() {
+        return bulkRequestHandler.getLimit();
+    }
+
+    /**
+     * Returns the current flush threshold in bytes, which may change at runtime if a bulk size policy is set.
+     * @return the flush threshold in bytes, or -1 if flushing by size is disabled
+     */
+    public long getBulkSize() {
+        return bulkSizePolicy != null ? bulkSizePolicy.getBulkSize() : bulkSize;
+    }
+
     /**
      * Closes the processor. If flushing by time is enabled, then it's shutdown. Any remaining bulk actions are flushed.
      */
@@ -217,17 +421,30 @@ public class BulkProcessor implements Closeable {
      * @return {@code true} if all bulk requests completed and {@code false} if the waiting time elapsed before all the bulk requests completed
      * @throws InterruptedException If the current thread is interrupted
      */
-    public synchronized boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
-        if (closed) {
-            return true;
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            closed = true;
+            if (this.flushRegistration != null) {
+                this.flushRegistration.cancel();
+            }
+            if (!isStriped() && batch.numberOfActions() > 0) {
+                execute();
+            }
         }
-        closed = true;
-        if (this.scheduledFuture != null) {
-            FutureUtils.cancel(this.scheduledFuture);
-            this.scheduler.shutdown();
+        if (isStriped()) {
+            drainStripes();
+        } else {
+            executeReady();
         }
-        if (bulkRequest.numberOfActions() > 0) {
-            execute();
+        if (ordered) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!awaitLanes(deadline)) {
+                return false;
+            }
+            return this.bulkRequestHandler.awaitClose(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
         }
         return this.bulkRequestHandler.awaitClose(timeout, unit);
     }
@@ -267,32 +484,127 @@ public class BulkProcessor implements Closeable {
      * @return his bulk processor
      */
     public BulkProcessor add(ActionRequest request, @Nullable Object payload) {
+        if (backPressure != null) {
+            backPressure.reserve(BackPressure.estimateSize(request));
+        }
         internalAdd(request, payload);
         return this;
     }
 
+    /**
+     * Adds either a delete or an index request if the back pressure budget admits it, without waiting.
+     * @param request request
+     * @return true if the request was added, false if the back pressure budget is exhausted
+     */
+    public boolean tryAdd(ActionRequest request) {
+        return tryAdd(request, null);
+    }
+
+    /**
+     * Adds either a delete or an index request with a payload if the back pressure budget admits it, without waiting.
+     * @param request request
+     * @param payload payload
+     * @return true if the request was added, false if the back pressure budget is exhausted
+     */
+    public boolean tryAdd(ActionRequest request, @Nullable Object payload) {
+        if (backPressure != null && !backPressure.tryReserve(BackPressure.estimateSize(request))) {
+            return false;
+        }
+        internalAdd(request, payload);
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes which are added but not yet answered by the cluster.
+     * @return the number of bytes, or -1 if no back pressure budget is set
+     */
+    public long getInFlightBytes() {
+        return backPressure != null ? backPressure.getBytes() : -1L;
+    }
+
     protected void ensureOpen() {
         if (closed) {
             throw new IllegalStateException("bulk process already closed");
         }
     }
 
-    private synchronized void internalAdd(ActionRequest request, @Nullable Object payload) {
-        ensureOpen();
-        bulkRequest.add(request, payload);
-        executeIfNeeded();
+    private void internalAdd(ActionRequest request, @Nullable Object payload) {
+        try {
+            if (partitions != null) {
+                addToPartition(request, payload);
+            } else if (stripes != null) {
+                stripe().add(request, payload);
+            } else {
+                synchronized (this) {
+                    ensureOpen();
+                    batch.add(request, payload);
+                    executeIfNeeded();
+                }
+            }
+        } catch (RuntimeException e) {
+            if (backPressure != null) {
+                backPressure.release(BackPressure.estimateSize(request));
+            }
+            throw e;
+        }
+        executeReady();
     }
 
     public BulkProcessor add(BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType) throws Exception {
         return add(data, defaultIndex, defaultType, null);
     }
 
-    public synchronized BulkProcessor add(BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType, @Nullable Object payload) throws Exception {
-        bulkRequest.add(data, defaultIndex, defaultType, null, null, payload, true);
-        executeIfNeeded();
+    public BulkProcessor add(BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType, @Nullable Object payload) throws Exception {
+        // the real size is known after parsing, reserve the length of the data and adjust afterwards
+        long reserved = data.length();
+        if (backPressure != null) {
+            backPressure.reserve(reserved);
+        }
+        long added = 0L;
+        try {
+            if (partitions != null) {
+                BulkRequest parsed = new BulkRequest();
+                add(parsed, data, defaultIndex, defaultType, payload);
+                List<ActionRequest> requests = parsed.requests();
+                List<Object> payloads = parsed.payloads();
+                for (int i = 0; i < requests.size(); i++) {
+                    ActionRequest request = requests.get(i);
+                    addToPartition(request, payloads != null ? payloads.get(i) : null);
+                    added += BackPressure.estimateSize(request);
+                }
+            } else if (stripes != null) {
+                added = stripe().add(data, defaultIndex, defaultType, payload);
+            } else {
+                synchronized (this) {
+                    ensureOpen();
+                    added = batch.add(data, defaultIndex, defaultType, payload);
+                    executeIfNeeded();
+                }
+            }
+        } finally {
+            if (backPressure != null) {
+                backPressure.adjust(added - reserved);
+            }
+        }
+        executeReady();
         return this;
     }
 
+    /**
+     * Parse data into a bulk request.
+     * @return the estimated size of the added requests
+     */
+    private static long add(BulkRequest bulkRequest, BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType,
+                            @Nullable Object payload) throws Exception {
+        int from = bulkRequest.numberOfActions();
+        bulkRequest.add(data, defaultIndex, defaultType, null, null, payload, true);
+        long size = 0L;
+        for (int i = from; i < bulkRequest.numberOfActions(); i++) {
+            size += BackPressure.estimateSize(bulkRequest.requests().get(i));
+        }
+        return size;
+    }
+
     private void executeIfNeeded() {
         ensureOpen();
         if (!isOverTheLimit()) {
@@ -301,42 +613,442 @@ public class BulkProcessor implements Closeable {
         execute();
     }
 
+    // needs to be executed under the monitor, the bulk request is handed over by executeReady() after the monitor is released
     private void execute() {
-        final BulkRequest bulkRequest = this.bulkRequest;
-        final long executionId = executionIdGen.incrementAndGet();
-
-        this.bulkRequest = new BulkRequest();
-        this.bulkRequestHandler.execute(bulkRequest, executionId);
+        Batch full = batch;
+        batch = new Batch();
+        readyRequests.offer(full.build());
     }
 
     private boolean isOverTheLimit() {
-        return bulkActions != -1 && bulkRequest.numberOfActions() >= bulkActions || bulkSize != -1 && bulkRequest.estimatedSizeInBytes() >= bulkSize;
+        return isOverTheLimit(batch);
+    }
+
+    private boolean isOverTheLimit(Batch batch) {
+        long bulkSize = getBulkSize();
+        return bulkActions != -1 && batch.numberOfActions() >= bulkActions || bulkSize != -1 && batch.estimatedSizeInBytes() >= bulkSize;
+    }
+
+    /**
+     * Called after the listener was notified about the completion of a bulk request.
+     */
+    private void afterExecution(BulkRequest bulkRequest) {
+        if (backPressure != null) {
+            Long size = bulkRequest.getFromContext(SIZE_CONTEXT_KEY);
+            backPressure.release(size != null ? size : 0L);
+        }
+        BytesBufferPool.Buffer buffer = bulkRequest.getFromContext(BUFFER_CONTEXT_KEY);
+        if (buffer != null) {
+            bufferPool.release(buffer);
+        }
+        Stripe lane = bulkRequest.getFromContext(LANE_CONTEXT_KEY);
+        if (lane != null) {
+            lane.next();
+        }
+    }
+
+    /**
+     * Wait until all bulk requests of the ordered lanes have completed.
+     * @param deadline the deadline in nanos
+     * @return true if all bulk requests completed, false if the deadline passed
+     */
+    private boolean awaitLanes(long deadline) throws InterruptedException {
+        synchronized (laneMonitor) {
+            while (laneRequests > 0) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0L) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(laneMonitor, nanos);
+            }
+            return true;
+        }
+    }
+
+    private void laneRequests(int delta) {
+        synchronized (laneMonitor) {
+            laneRequests += delta;
+            if (laneRequests == 0) {
+                laneMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Feed the bulk size policy with a completed bulk request.
+     * @param bulkRequest the bulk request
+     * @param bulkResponse the response, merged with the responses of the retries
+     * @param roundTripNanos the time spent in round trips to the cluster, without the delays before retries
+     */
+    private void adjustBulkSize(BulkRequest bulkRequest, BulkResponse bulkResponse, long roundTripNanos) {
+        if (bulkSizePolicy != null) {
+            bulkSizePolicy.onResponse(bulkRequest.estimatedSizeInBytes(), bulkResponse.getTookInMillis(),
+                    TimeUnit.NANOSECONDS.toMillis(roundTripNanos));
+        }
+    }
+
+    /**
+     * Select the stripe of the current thread. Thread IDs are mixed so that consecutive IDs
+     * spread over all stripes.
+     * @return the stripe
+     */
+    private Stripe stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return stripes[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    /**
+     * Add a request to its partition. If the partition is evicted concurrently, it is selected again.
+     * @param request the request
+     * @param payload the payload
+     */
+    private void addToPartition(ActionRequest request, @Nullable Object payload) {
+        while (!partition(request).offer(request, payload)) {
+            // the evicted partition is no longer in the map, the next selection creates a new one
+        }
+    }
+
+    /**
+     * Select the partition of a request, the partition is created when it receives its first request.
+     * @param request the request
+     * @return the partition
+     */
+    private Stripe partition(ActionRequest request) {
+        Object key = partitioner.partition(request);
+        Stripe partition = partitions.get(key);
+        if (partition == null) {
+            partition = new Stripe();
+            Stripe existing = partitions.putIfAbsent(key, partition);
+            if (existing != null) {
+                partition = existing;
+            }
+        }
+        return partition;
+    }
+
+    private boolean isStriped() {
+        return stripes != null || partitions != null;
+    }
+
+    /**
+     * Hand all queued bulk requests over to the bulk request handler. This method is called without holding
+     * a lock, so concurrent producers can execute full bulk requests in parallel, and a producer waiting for
+     * a concurrent request does not block other producers or the flush scheduler.
+     */
+    private void executeReady() {
+        BulkRequest bulkRequest;
+        while ((bulkRequest = readyRequests.poll()) != null) {
+            this.bulkRequestHandler.execute(bulkRequest, executionIdGen.incrementAndGet());
+        }
+    }
+
+    /**
+     * Drain all stripes. Partitions which received no request since the previous drain are evicted, so partition
+     * keys of deleted indices or departed nodes do not accumulate.
+     */
+    private void drainStripes() {
+        if (partitions != null) {
+            for (Map.Entry<Object, Stripe> entry : partitions.entrySet()) {
+                if (entry.getValue().drain(true)) {
+                    partitions.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } else {
+            for (Stripe stripe : stripes) {
+                stripe.drain(false);
+            }
+        }
+        executeReady();
     }
 
     /**
      * Flush pending delete or index requests.
      */
-    public synchronized void flush() {
+    public void flush() {
         ensureOpen();
-        if (bulkRequest.numberOfActions() > 0) {
-            execute();
+        if (isStriped()) {
+            drainStripes();
+            return;
         }
-
+        synchronized (this) {
+            if (batch.numberOfActions() > 0) {
+                execute();
+            }
+        }
+        executeReady();
     }
 
     class Flush implements Runnable {
 
         @Override
         public void run() {
+            if (isStriped()) {
+                if (!closed) {
+                    drainStripes();
+                }
+                return;
+            }
             synchronized (BulkProcessor.this) {
                 if (closed) {
                     return;
                 }
-                if (bulkRequest.numberOfActions() == 0) {
+                if (batch.numberOfActions() == 0) {
                     return;
                 }
                 execute();
             }
+            executeReady();
+        }
+    }
+
+    /**
+     * An accumulation buffer for a subset of the producer threads, or for a partition. Each stripe guards its own batch,
+     * full batches are moved to the ready queue as bulk requests.
+     * As an ordered lane, a stripe keeps full bulk requests back while one of its bulk requests is in flight, and moves
+     * the next one to the ready queue when it has completed.
+     */
+    class Stripe {
+
+        private Batch batch = new Batch();
+
+        private final Queue<BulkRequest> pending = ordered ? new ArrayDeque<BulkRequest>() : null;
+
+        private boolean inFlight;
+
+        private boolean evicted;
+
+        /**
+         * Add a request to a partition.
+         * @return false if the partition is evicted and must not receive requests anymore
+         */
+        synchronized boolean offer(ActionRequest request, @Nullable Object payload) {
+            if (evicted) {
+                return false;
+            }
+            add(request, payload);
+            return true;
+        }
+
+        synchronized void add(ActionRequest request, @Nullable Object payload) {
+            ensureOpen();
+            batch.add(request, payload);
+            if (isOverTheLimit(batch)) {
+                enqueue();
+            }
+        }
+
+        synchronized long add(BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType,
+                              @Nullable Object payload) throws Exception {
+            ensureOpen();
+            long size = batch.add(data, defaultIndex, defaultType, payload);
+            if (isOverTheLimit(batch)) {
+                enqueue();
+            }
+            return size;
+        }
+
+        /**
+         * Move the batch to the ready queue.
+         * @param evict true if the stripe should be evicted when it is idle
+         * @return true if the stripe was idle and is evicted
+         */
+        synchronized boolean drain(boolean evict) {
+            if (batch.numberOfActions() > 0) {
+                enqueue();
+                return false;
+            }
+            if (evict && !inFlight && (pending == null || pending.isEmpty())) {
+                evicted = true;
+            }
+            return evicted;
+        }
+
+        private void enqueue() {
+            Batch full = batch;
+            batch = new Batch();
+            BulkRequest bulkRequest = full.build();
+            if (ordered) {
+                laneRequests(1);
+                bulkRequest.putInContext(LANE_CONTEXT_KEY, this);
+                if (inFlight) {
+                    pending.offer(bulkRequest);
+                    return;
+                }
+                inFlight = true;
+            }
+            readyRequests.offer(bulkRequest);
+        }
+
+        /**
+         * Called after a bulk request of this lane has completed. The next bulk request is executed on the generic
+         * thread pool, because this method may be called on a transport thread which must not wait for a permit
+         * of the concurrency limiter.
+         */
+        void next() {
+            synchronized (this) {
+                BulkRequest bulkRequest = pending.poll();
+                if (bulkRequest == null) {
+                    inFlight = false;
+                } else {
+                    readyRequests.offer(bulkRequest);
+                }
+            }
+            laneRequests(-1);
+            threadPool.generic().execute(new Runnable() {
+                @Override
+                public void run() {
+                    executeReady();
+                }
+            });
+        }
+    }
+
+    /**
+     * Assigns requests to ordered lanes by the hash of index and ID. Requests without ID can not conflict
+     * and are spread over all lanes.
+     */
+    static class LanePartitioner implements BulkPartitioner {
+
+        private final int lanes;
+
+        LanePartitioner(int lanes) {
+            this.lanes = lanes;
+        }
+
+        @Override
+        public Object partition(ActionRequest request) {
+            int h;
+            if (request instanceof DocumentRequest && ((DocumentRequest<?>) request).id() != null) {
+                DocumentRequest<?> documentRequest = (DocumentRequest<?>) request;
+                h = 31 * String.valueOf(documentRequest.index()).hashCode() + documentRequest.id().hashCode();
+            } else {
+                h = System.identityHashCode(request);
+            }
+            h ^= h >>> 16;
+            return (h & Integer.MAX_VALUE) % lanes;
+        }
+    }
+
+    /**
+     * The actions accumulated for the next bulk request. Without a buffer pool, actions are added to a bulk request.
+     * With a buffer pool, actions are encoded in the bulk format into a pooled buffer, and the bulk request is
+     * parsed from the buffer when the batch is built, with the sources referencing the buffer.
+     * The estimated size of the actions is kept in the context of the bulk request for releasing the back
+     * pressure budget, because the sizes of encoded sources may differ from the added ones.
+     */
+    class Batch {
+
+        private final BulkRequest bulkRequest = new BulkRequest();
+
+        private BytesBufferPool.Buffer buffer;
+
+        private int numberOfActions;
+
+        private long sizeInBytes;
+
+        private List<Object> payloads;
+
+        private List<ActionRequest> unencoded;
+
+        void add(ActionRequest request, @Nullable Object payload) {
+            long size = BackPressure.estimateSize(request);
+            if (bufferPool == null) {
+                bulkRequest.add(request, payload);
+            } else {
+                if (request instanceof IndexRequest || request instanceof DeleteRequest) {
+                    if (buffer == null) {
+                        buffer = bufferPool.acquire();
+                    }
+                    int mark = buffer.size();
+                    try {
+                        BulkRequestEncoder.encode(request, buffer);
+                    } catch (IOException e) {
+                        buffer.truncate(mark);
+                        throw new ElasticsearchException("unable to encode request", e);
+                    } catch (RuntimeException e) {
+                        buffer.truncate(mark);
+                        throw e;
+                    }
+                } else {
+                    // requests which can not be encoded, such as updates, are kept in their position
+                    unencoded = pad(unencoded);
+                    unencoded.set(numberOfActions, request);
+                }
+                if (payload != null) {
+                    payloads = pad(payloads);
+                    payloads.set(numberOfActions, payload);
+                }
+            }
+            numberOfActions++;
+            sizeInBytes += size;
+        }
+
+        private <T> List<T> pad(List<T> list) {
+            if (list == null) {
+                list = new ArrayList<>();
+            }
+            while (list.size() <= numberOfActions) {
+                list.add(null);
+            }
+            return list;
+        }
+
+        long add(BytesReference data, @Nullable String defaultIndex, @Nullable String defaultType,
+                 @Nullable Object payload) throws Exception {
+            if (bufferPool == null) {
+                long size = BulkProcessor.add(bulkRequest, data, defaultIndex, defaultType, payload);
+                numberOfActions = bulkRequest.numberOfActions();
+                sizeInBytes += size;
+                return size;
+            }
+            // defaults must be resolved before the actions can be encoded
+            BulkRequest parsed = new BulkRequest();
+            long size = BulkProcessor.add(parsed, data, defaultIndex, defaultType, payload);
+            for (ActionRequest request : parsed.requests()) {
+                add(request, payload);
+            }
+            return size;
+        }
+
+        int numberOfActions() {
+            return numberOfActions;
+        }
+
+        long estimatedSizeInBytes() {
+            return sizeInBytes;
+        }
+
+        BulkRequest build() {
+            BulkRequest request = bulkRequest;
+            if (buffer != null || unencoded != null) {
+                try {
+                    if (payloads == null && unencoded == null) {
+                        request.add(buffer.bytes(), null, null, null, null, null, true);
+                    } else {
+                        // merge the decoded and the unencoded requests in the order they were added
+                        Iterator<ActionRequest> decoded = Collections.<ActionRequest>emptyIterator();
+                        if (buffer != null) {
+                            BulkRequest parsed = new BulkRequest();
+                            parsed.add(buffer.bytes(), null, null, null, null, null, true);
+                            decoded = parsed.requests().iterator();
+                        }
+                        for (int i = 0; i < numberOfActions; i++) {
+                            ActionRequest actionRequest = unencoded != null && i < unencoded.size() ? unencoded.get(i) : null;
+                            request.add(actionRequest != null ? actionRequest : decoded.next(),
+                                    payloads != null && i < payloads.size() ? payloads.get(i) : null);
+                        }
+                    }
+                } catch (Exception e) {
+                    // the failure is reported to the listener, not to the producer which filled the batch
+                    request.putInContext(FAILURE_CONTEXT_KEY, new IllegalStateException("unable to build bulk request from buffer", e));
+                }
+                if (buffer != null) {
+                    request.putInContext(BUFFER_CONTEXT_KEY, buffer);
+                }
+            }
+            request.putInContext(SIZE_CONTEXT_KEY, sizeInBytes);
+            return request;
         }
     }
 
@@ -349,6 +1061,8 @@ public class BulkProcessor implements Closeable {
 
         public abstract boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException;
 
+        public abstract int getLimit();
+
     }
 
     class SyncBulkRequestHandler extends BulkRequestHandler {
@@ -360,36 +1074,72 @@ public class BulkProcessor implements Closeable {
             this.listener = listener;
         }
 
-        public void execute(BulkRequest bulkRequest, long executionId) {
+        public synchronized void execute(BulkRequest bulkRequest, long executionId) {
             boolean afterCalled = false;
             try {
                 listener.beforeBulk(executionId, bulkRequest);
+                Exception failure = bulkRequest.getFromContext(FAILURE_CONTEXT_KEY);
+                if (failure != null) {
+                    throw failure;
+                }
+                long startNanos = System.nanoTime();
                 BulkResponse bulkResponse = client.execute(BulkAction.INSTANCE, bulkRequest).actionGet();
+                long roundTripNanos = System.nanoTime() - startNanos;
+                if (retryPolicy != null) {
+                    Retry retry = retry(bulkRequest, bulkResponse, roundTripNanos);
+                    bulkResponse = retry.response();
+                    roundTripNanos = retry.roundTripNanos();
+                }
+                adjustBulkSize(bulkRequest, bulkResponse, roundTripNanos);
                 afterCalled = true;
                 listener.afterBulk(executionId, bulkRequest, bulkResponse);
             } catch (Throwable t) {
                 if (!afterCalled) {
                     listener.afterBulk(executionId, bulkRequest, t);
                 }
+            } finally {
+                afterExecution(bulkRequest);
+            }
+        }
+
+        private Retry retry(BulkRequest bulkRequest, BulkResponse bulkResponse, long roundTripNanos) {
+            Retry retry = new Retry(bulkRequest);
+            try {
+                BulkRequest retryRequest = retry.onResponse(bulkResponse, roundTripNanos);
+                while (retryRequest != null) {
+                    Thread.sleep(retry.delay().millis());
+                    long startNanos = System.nanoTime();
+                    BulkResponse retryResponse = client.execute(BulkAction.INSTANCE, retryRequest).actionGet();
+                    retryRequest = retry.onResponse(retryResponse, System.nanoTime() - startNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                retry.abort();
+            } catch (Exception e) {
+                // the rejected items of the last response remain failed
+                retry.abort();
             }
+            return retry;
         }
 
         public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
             return true;
         }
+
+        public int getLimit() {
+            return 0;
+        }
     }
 
     class AsyncBulkRequestHandler extends BulkRequestHandler {
         private final Client client;
         private final BulkProcessor.Listener listener;
-        private final Semaphore semaphore;
-        private final int concurrentRequests;
+        private final ConcurrencyLimiter limiter;
 
-        private AsyncBulkRequestHandler(Client client, BulkProcessor.Listener listener, int concurrentRequests) {
+        private AsyncBulkRequestHandler(Client client, BulkProcessor.Listener listener, ConcurrencyLimiter limiter) {
             this.client = client;
             this.listener = listener;
-            this.concurrentRequests = concurrentRequests;
-            this.semaphore = new Semaphore(concurrentRequests);
+            this.limiter = limiter;
         }
 
         @Override
@@ -398,27 +1148,13 @@ public class BulkProcessor implements Closeable {
             boolean acquired = false;
             try {
                 listener.beforeBulk(executionId, bulkRequest);
-                semaphore.acquire();
+                Exception failure = bulkRequest.getFromContext(FAILURE_CONTEXT_KEY);
+                if (failure != null) {
+                    throw failure;
+                }
+                limiter.acquire();
                 acquired = true;
-                client.execute(BulkAction.INSTANCE, bulkRequest, new ActionListener<BulkResponse>() {
-                    @Override
-                    public void onResponse(BulkResponse response) {
-                        try {
-                            listener.afterBulk(executionId, bulkRequest, response);
-                        } finally {
-                            semaphore.release();
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(Throwable e) {
-                        try {
-                            listener.afterBulk(executionId, bulkRequest, e);
-                        } finally {
-                            semaphore.release();
-                        }
-                    }
-                });
+                new AsyncExecution(executionId, bulkRequest).send(bulkRequest);
                 bulkRequestSetupSuccessful = true;
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -426,19 +1162,200 @@ public class BulkProcessor implements Closeable {
             } catch (Throwable t) {
                 listener.afterBulk(executionId, bulkRequest, t);
             } finally {
-                if (!bulkRequestSetupSuccessful && acquired) {  // if we fail on client.bulk() release the semaphore
-                    semaphore.release();
+                if (!bulkRequestSetupSuccessful && acquired) {  // if we fail on client.bulk() release the permit
+                    limiter.release();
+                }
+                if (!bulkRequestSetupSuccessful) {
+                    afterExecution(bulkRequest);
                 }
             }
         }
 
         @Override
         public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
-            if (semaphore.tryAcquire(this.concurrentRequests, timeout, unit)) {
-                semaphore.release(this.concurrentRequests);
-                return true;
+            return limiter.awaitIdle(timeout, unit);
+        }
+
+        @Override
+        public int getLimit() {
+            return limiter.getLimit();
+        }
+
+        /**
+         * The execution of a bulk request including the retries of rejected items. The permit of the limiter
+         * is held until the last retry has completed.
+         */
+        class AsyncExecution implements ActionListener<BulkResponse> {
+            private final long executionId;
+            private final BulkRequest bulkRequest;
+            private final Retry retry;
+            private long attemptNanos;
+            private boolean rejected;
+
+            AsyncExecution(long executionId, BulkRequest bulkRequest) {
+                this.executionId = executionId;
+                this.bulkRequest = bulkRequest;
+                this.retry = retryPolicy != null ? new Retry(bulkRequest) : null;
             }
-            return false;
+
+            void send(BulkRequest request) {
+                attemptNanos = System.nanoTime();
+                client.execute(BulkAction.INSTANCE, request, this);
+            }
+
+            @Override
+            public void onResponse(BulkResponse response) {
+                rejected |= ConcurrencyLimiter.hasRejections(response);
+                long roundTripNanos = System.nanoTime() - attemptNanos;
+                if (retry == null) {
+                    complete(response, roundTripNanos);
+                    return;
+                }
+                final BulkRequest retryRequest = retry.onResponse(response, roundTripNanos);
+                if (retryRequest == null) {
+                    complete(retry.response(), retry.roundTripNanos());
+                    return;
+                }
+                try {
+                    client.threadPool().schedule(retry.delay(), ThreadPool.Names.SAME, new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                send(retryRequest);
+                            } catch (Throwable t) {
+                                onFailure(t);
+                            }
+                        }
+                    });
+                } catch (Throwable t) {
+                    onFailure(t);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (retry != null && retry.isRetrying()) {
+                    // a retry failed, the rejected items of the last response remain failed
+                    retry.abort();
+                    complete(retry.response(), retry.roundTripNanos());
+                    return;
+                }
+                rejected |= ConcurrencyLimiter.isRejection(e);
+                try {
+                    listener.afterBulk(executionId, bulkRequest, e);
+                } finally {
+                    limiter.release(System.nanoTime() - attemptNanos, rejected);
+                    afterExecution(bulkRequest);
+                }
+            }
+
+            private void complete(BulkResponse response, long roundTripNanos) {
+                try {
+                    adjustBulkSize(bulkRequest, response, roundTripNanos);
+                    listener.afterBulk(executionId, bulkRequest, response);
+                } finally {
+                    limiter.release(System.nanoTime() - attemptNanos, rejected);
+                    afterExecution(bulkRequest);
+                }
+            }
+        }
+    }
+
+    /**
+     * The retry state of a bulk request. Responses of retries are merged into the items of the first response,
+     * so the listener receives a single response with the item IDs of the original bulk request.
+     */
+    class Retry {
+        private final BulkRequest bulkRequest;
+        private BulkItemResponse[] items;
+        private int[] positions;
+        private int attempt;
+        private int reserved;
+        private long tookInMillis;
+        private long roundTripNanos;
+
+        Retry(BulkRequest bulkRequest) {
+            this.bulkRequest = bulkRequest;
+        }
+
+        boolean isRetrying() {
+            return positions != null;
+        }
+
+        /**
+         * Merge a response and build the next retry request.
+         * @param response the response of the bulk request or of the last retry request
+         * @param roundTripNanos the round trip time of the request, without the delay before it was sent
+         * @return the retry request, or null if there is nothing to retry or no retry is admitted
+         */
+        BulkRequest onResponse(BulkResponse response, long roundTripNanos) {
+            this.tookInMillis += response.getTookInMillis();
+            this.roundTripNanos += roundTripNanos;
+            BulkItemResponse[] responseItems = response.getItems();
+            if (positions == null) {
+                items = responseItems;
+            } else {
+                for (int i = 0; i < responseItems.length; i++) {
+                    items[positions[i]] = withItemId(responseItems[i], positions[i]);
+                }
+                abort();
+            }
+            if (attempt >= retryPolicy.getMaxRetries()) {
+                return null;
+            }
+            int n = 0;
+            for (BulkItemResponse item : items) {
+                if (BulkRetryPolicy.isRejected(item)) {
+                    n++;
+                }
+            }
+            if (n == 0 || !retryPolicy.tryAcquire(n)) {
+                return null;
+            }
+            reserved = n;
+            positions = new int[n];
+            BulkRequest retryRequest = new BulkRequest();
+            retryRequest.copyContextAndHeadersFrom(bulkRequest);
+            retryRequest.timeout(bulkRequest.timeout());
+            retryRequest.consistencyLevel(bulkRequest.consistencyLevel());
+            retryRequest.refresh(bulkRequest.refresh());
+            List<Object> payloads = bulkRequest.payloads();
+            int j = 0;
+            for (int i = 0; i < items.length; i++) {
+                if (BulkRetryPolicy.isRejected(items[i])) {
+                    positions[j++] = i;
+                    retryRequest.add(bulkRequest.requests().get(i), payloads != null ? payloads.get(i) : null);
+                }
+            }
+            attempt++;
+            return retryRequest;
+        }
+
+        TimeValue delay() {
+            return retryPolicy.delay(attempt - 1);
+        }
+
+        void abort() {
+            if (reserved > 0) {
+                retryPolicy.release(reserved);
+                reserved = 0;
+            }
+            positions = null;
+        }
+
+        BulkResponse response() {
+            return new BulkResponse(items, tookInMillis);
+        }
+
+        long roundTripNanos() {
+            return roundTripNanos;
+        }
+
+        private BulkItemResponse withItemId(BulkItemResponse item, int itemId) {
+            if (item.isFailed()) {
+                return new BulkItemResponse(itemId, item.getOpType(), item.getFailure());
+            }
+            return new BulkItemResponse(itemId, item.getOpType(), item.<ActionWriteResponse>getResponse());
         }
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Encodes index and delete requests into the newline delimited bulk format.
+ */
+public final class BulkRequestEncoder {
+
+    private static final int NEWLINE = '\n';
+
+    private BulkRequestEncoder() {
+    }
+
+    /**
+     * Encode a request with the action line and, for index requests, the source line.
+     *
+     * @param request the request
+     * @param out     the output stream
+     * @throws IOException if the request can not be encoded
+     */
+    public static void encode(ActionRequest request, OutputStream out) throws IOException {
+        if (request instanceof IndexRequest) {
+            encode((IndexRequest) request, out);
+        } else if (request instanceof DeleteRequest) {
+            encode((DeleteRequest) request, out);
+        } else {
+            throw new IllegalArgumentException("unsupported request type for bulk encoding: "
+                    + request.getClass().getName());
+        }
+    }
+
+    public static void encode(IndexRequest request, OutputStream out) throws IOException {
+        encodeAction(request, out);
+        source(request.source()).writeTo(out);
+        out.write(NEWLINE);
+    }
+
+    /**
+     * Encode only the action line of an index request. The source line must be written by the caller, e.g. by
+     * appending {@link #source(BytesReference)} and a line break without copying.
+     *
+     * @param request the request
+     * @param out     the output stream
+     * @throws IOException if the request can not be encoded
+     */
+    public static void encodeAction(IndexRequest request, OutputStream out) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder(out);
+        builder.startObject()
+                .startObject(request.opType() == IndexRequest.OpType.CREATE ? "create" : "index");
+        metadata(builder, request.index(), request.type(), request.id(), request.routing(),
+                request.version(), request.versionType());
+        if (request.parent() != null) {
+            builder.field("_parent", request.parent());
+        }
+        if (request.timestamp() != null) {
+            builder.field("_timestamp", request.timestamp());
+        }
+        // the TTL type varies between versions, the bulk parser accepts both as string
+        Object ttl = request.ttl();
+        if (ttl != null && !(ttl instanceof Long && (Long) ttl < 0L)) {
+            builder.field("_ttl", ttl.toString());
+        }
+        builder.endObject().endObject();
+        builder.close();
+        out.write(NEWLINE);
+    }
+
+    public static void encode(DeleteRequest request, OutputStream out) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder(out);
+        builder.startObject().startObject("delete");
+        metadata(builder, request.index(), request.type(), request.id(), request.routing(),
+                request.version(), request.versionType());
+        builder.endObject().endObject();
+        builder.close();
+        out.write(NEWLINE);
+    }
+
+    private static void metadata(XContentBuilder builder, String index, String type, String id, String routing,
+                                 long version, VersionType versionType) throws IOException {
+        builder.field("_index", index).field("_type", type);
+        if (id != null) {
+            builder.field("_id", id);
+        }
+        if (routing != null) {
+            builder.field("_routing", routing);
+        }
+        if (version != Versions.MATCH_ANY) {
+            builder.field("_version", version);
+            builder.field("_version_type", versionType.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * A source line must be JSON without line breaks, otherwise the source is converted.
+     *
+     * @param source the source
+     * @return the source as a single line of JSON
+     * @throws IOException if the source can not be converted
+     */
+    public static BytesReference source(BytesReference source) throws IOException {
+        if (XContentFactory.xContentType(source) == XContentType.JSON && !containsNewline(source)) {
+            return source;
+        }
+        return new BytesArray(XContentHelper.convertToJson(source, true).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean containsNewline(BytesReference source) {
+        if (source.hasArray()) {
+            byte[] array = source.array();
+            int end = source.arrayOffset() + source.length();
+            for (int i = source.arrayOffset(); i < end; i++) {
+                if (array[i] == NEWLINE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = 0; i < source.length(); i++) {
+            if (source.get(i) == NEWLINE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
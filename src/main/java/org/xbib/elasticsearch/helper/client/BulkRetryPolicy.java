@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A policy for retrying bulk items which were rejected by the cluster.
+ *
+ * Delays grow exponentially from the initial delay up to the maximum delay, with a random jitter of up to
+ * half of the delay, so that rejected producers do not retry in lockstep. The retry budget limits the number
+ * of items which may wait for a retry at the same time, so a cluster which is overloaded for a long time
+ * does not pile up retries on the client.
+ */
+public class BulkRetryPolicy {
+
+    private final TimeValue initialDelay;
+
+    private final TimeValue maxDelay;
+
+    private final int maxRetries;
+
+    private final int retryBudget;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Create a retry policy.
+     *
+     * @param initialDelay the delay before the first retry
+     * @param maxDelay     the maximum delay before a retry
+     * @param maxRetries   the maximum number of retries of a bulk request
+     * @param retryBudget  the maximum number of items waiting for a retry at the same time
+     */
+    public BulkRetryPolicy(TimeValue initialDelay, TimeValue maxDelay, int maxRetries, int retryBudget) {
+        if (initialDelay.millis() < 0L || maxDelay.millis() < initialDelay.millis()) {
+            throw new IllegalArgumentException("invalid delays: initial=" + initialDelay + " max=" + maxDelay);
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetries = maxRetries;
+        this.retryBudget = retryBudget;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the number of items currently waiting for a retry.
+     *
+     * @return the number of items
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Returns the delay before a retry.
+     *
+     * @param attempt the number of the retry, starting with 0
+     * @return the delay
+     */
+    public TimeValue delay(int attempt) {
+        long millis = initialDelay.millis() << Math.min(attempt, 30);
+        if (millis <= 0L || millis > maxDelay.millis()) {
+            millis = maxDelay.millis();
+        }
+        long half = millis / 2;
+        return TimeValue.timeValueMillis(half + (half > 0L ? ThreadLocalRandom.current().nextLong(half + 1) : 0L));
+    }
+
+    /**
+     * Take items from the retry budget.
+     *
+     * @param items the number of items to retry
+     * @return true if the budget admits the retry, false if not
+     */
+    public boolean tryAcquire(int items) {
+        while (true) {
+            int current = pending.get();
+            if (current + items > retryBudget) {
+                return false;
+            }
+            if (pending.compareAndSet(current, current + items)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return items to the retry budget.
+     *
+     * @param items the number of items
+     */
+    public void release(int items) {
+        pending.addAndGet(-items);
+    }
+
+    /**
+     * Check if a bulk item was rejected and may succeed if retried.
+     *
+     * @param itemResponse the bulk item response
+     * @return true if the item was rejected
+     */
+    public static boolean isRejected(BulkItemResponse itemResponse) {
+        return itemResponse.isFailed() && itemResponse.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    @Override
+    public String toString() {
+        return "[initialDelay=" + initialDelay + ",maxDelay=" + maxDelay + ",maxRetries=" + maxRetries
+                + ",retryBudget=" + retryBudget + ",pending=" + pending.get() + "]";
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * A sizing policy for bulk requests which moves the flush threshold in bytes toward a target latency per request.
+ *
+ * After each response, the throughput of the request is estimated from the request size and the larger of
+ * the server side took time and the client side round trip time. The flush threshold moves by a fraction of the
+ * distance to the size that would have been transferred within the target latency at that throughput,
+ * and always stays between the configured minimum and maximum.
+ */
+public class BulkSizePolicy {
+
+    private static final double GAIN = 0.25d;
+
+    private final long targetLatencyMillis;
+
+    private final long minBytes;
+
+    private final long maxBytes;
+
+    private volatile long bulkSize;
+
+    /**
+     * Create a bulk size policy.
+     *
+     * @param targetLatency the target latency per bulk request
+     * @param minSize       the minimum flush threshold
+     * @param maxSize       the maximum flush threshold
+     * @param initialSize   the initial flush threshold
+     */
+    public BulkSizePolicy(TimeValue targetLatency, ByteSizeValue minSize, ByteSizeValue maxSize,
+                          ByteSizeValue initialSize) {
+        if (targetLatency.millis() <= 0L) {
+            throw new IllegalArgumentException("target latency must be positive: " + targetLatency);
+        }
+        if (minSize.bytes() <= 0L || maxSize.bytes() < minSize.bytes()) {
+            throw new IllegalArgumentException("invalid bounds: min=" + minSize + " max=" + maxSize);
+        }
+        this.targetLatencyMillis = targetLatency.millis();
+        this.minBytes = minSize.bytes();
+        this.maxBytes = maxSize.bytes();
+        this.bulkSize = clamp(initialSize.bytes());
+    }
+
+    /**
+     * Returns the current flush threshold in bytes.
+     *
+     * @return the flush threshold in bytes
+     */
+    public long getBulkSize() {
+        return bulkSize;
+    }
+
+    /**
+     * Returns the upper bound of the flush threshold in bytes.
+     *
+     * @return the maximum flush threshold in bytes
+     */
+    public long getMaxBulkSize() {
+        return maxBytes;
+    }
+
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    /**
+     * Adjust the flush threshold by an observed response.
+     *
+     * @param requestBytes    the estimated size of the request in bytes
+     * @param tookMillis      the time the cluster reported for the request
+     * @param roundTripMillis the time between sending the request and receiving the response on the client
+     */
+    public synchronized void onResponse(long requestBytes, long tookMillis, long roundTripMillis) {
+        long latency = Math.max(Math.max(tookMillis, roundTripMillis), 1L);
+        if (requestBytes <= 0L) {
+            return;
+        }
+        double desired = (double) requestBytes * targetLatencyMillis / latency;
+        bulkSize = clamp((long) (bulkSize + (desired - bulkSize) * GAIN));
+    }
+
+    private long clamp(long size) {
+        return Math.min(Math.max(size, minBytes), maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "[bulkSize=" + new ByteSizeValue(bulkSize) + ",target=" + TimeValue.timeValueMillis(targetLatencyMillis)
+                + ",min=" + new ByteSizeValue(minBytes) + ",max=" + new ByteSizeValue(maxBytes) + "]";
+    }
+}
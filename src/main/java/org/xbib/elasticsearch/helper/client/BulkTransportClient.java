@@ -31,9 +31,11 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -115,6 +117,7 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
             @Override
             public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
                 metric.getCurrentIngest().dec();
+                metric.setEffectiveBulkSize(bulkProcessor.getBulkSize());
                 long l = metric.getCurrentIngest().getCount();
                 metric.getSucceeded().inc(response.getItems().length);
                 int n = 0;
@@ -161,11 +164,50 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
         BulkProcessor.Builder builder = BulkProcessor.builder(client, listener)
                 .setBulkActions(maxActionsPerRequest)
                 .setConcurrentRequests(maxConcurrentRequests)
-                .setFlushInterval(flushInterval);
+                .setFlushInterval(flushInterval)
+                .setStripes(settings.getAsInt(BULK_STRIPES, DEFAULT_BULK_STRIPES));
         if (maxVolumePerRequest != null) {
             builder.setBulkSize(maxVolumePerRequest);
         }
+        TimeValue targetLatency = settings.getAsTime(TARGET_LATENCY_PER_REQUEST, null);
+        if (targetLatency != null) {
+            ByteSizeValue maxVolume = maxVolumePerRequest != null ? maxVolumePerRequest : DEFAULT_MAX_VOLUME_PER_REQUEST;
+            builder.setBulkSizePolicy(new BulkSizePolicy(targetLatency,
+                    settings.getAsBytesSize(MIN_VOLUME_PER_REQUEST, DEFAULT_MIN_VOLUME_PER_REQUEST),
+                    maxVolume, maxVolume));
+        }
+        ByteSizeValue maxInFlightVolume = settings.getAsBytesSize(MAX_IN_FLIGHT_VOLUME, null);
+        if (maxInFlightVolume != null) {
+            builder.setBackPressure(new BackPressure(maxInFlightVolume,
+                    BackPressure.Mode.valueOf(settings.get(BACK_PRESSURE_MODE, "block").toUpperCase(Locale.ROOT)),
+                    settings.getAsTime(BACK_PRESSURE_TIMEOUT, DEFAULT_BACK_PRESSURE_TIMEOUT)));
+        }
+        int maxRetries = settings.getAsInt(BULK_MAX_RETRIES, DEFAULT_BULK_MAX_RETRIES);
+        if (maxRetries > 0) {
+            builder.setRetryPolicy(new BulkRetryPolicy(settings.getAsTime(BULK_RETRY_DELAY, DEFAULT_BULK_RETRY_DELAY),
+                    settings.getAsTime(BULK_RETRY_MAX_DELAY, DEFAULT_BULK_RETRY_MAX_DELAY),
+                    maxRetries,
+                    settings.getAsInt(BULK_RETRY_BUDGET, DEFAULT_BULK_RETRY_BUDGET)));
+        }
+        if (settings.getAsBoolean(ADAPTIVE_CONCURRENCY, false)) {
+            builder.setAdaptiveConcurrency(settings.getAsInt(MIN_CONCURRENT_REQUESTS, DEFAULT_MIN_CONCURRENT_REQUESTS),
+                    maxConcurrentRequests);
+        }
+        if (settings.getAsBoolean(BULK_PRESERIALIZE, false)) {
+            ByteSizeValue maxVolume = maxVolumePerRequest != null ? maxVolumePerRequest : DEFAULT_MAX_VOLUME_PER_REQUEST;
+            builder.setBufferPool(new BytesBufferPool(settings.getAsInt(BULK_BUFFER_POOL_SIZE, DEFAULT_BULK_BUFFER_POOL_SIZE),
+                    (int) Math.min(Integer.MAX_VALUE, 2 * maxVolume.bytes())));
+        }
+        String partitioning = settings.get(BULK_PARTITIONING);
+        if ("shard".equals(partitioning) || "node".equals(partitioning)) {
+            builder.setPartitioner(new ShardBulkPartitioner(client, "node".equals(partitioning),
+                    settings.getAsTime(BULK_PARTITIONING_REFRESH_INTERVAL, DEFAULT_BULK_PARTITIONING_REFRESH_INTERVAL)));
+        } else if (partitioning != null) {
+            throw new IllegalArgumentException("unknown bulk partitioning: " + partitioning);
+        }
+        builder.setOrderedLanes(settings.getAsInt(BULK_ORDERED_LANES, 0));
         this.bulkProcessor = builder.build();
+        metric.setEffectiveBulkSize(bulkProcessor.getBulkSize());
         try {
             Collection<InetSocketTransportAddress> addrs = findAddresses(settings);
             if (!connect(addrs, settings.getAsBoolean("autodiscover", false))) {
@@ -236,6 +278,10 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
         try {
             metric.getCurrentIngest().inc(index, type, id);
             bulkProcessor.add(new IndexRequest().index(index).type(type).id(id).create(false).source(source));
+        } catch (EsRejectedExecutionException e) {
+            // the request was not accepted
+            metric.getCurrentIngest().dec(index, type, id);
+            throw e;
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -252,6 +298,10 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
         try {
             metric.getCurrentIngest().inc(indexRequest.index(), indexRequest.type(), indexRequest.id());
             bulkProcessor.add(indexRequest);
+        } catch (EsRejectedExecutionException e) {
+            // the request was not accepted
+            metric.getCurrentIngest().dec(indexRequest.index(), indexRequest.type(), indexRequest.id());
+            throw e;
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -268,6 +318,10 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
         try {
             metric.getCurrentIngest().inc(index, type, id);
             bulkProcessor.add(new DeleteRequest().index(index).type(type).id(id));
+        } catch (EsRejectedExecutionException e) {
+            // the request was not accepted
+            metric.getCurrentIngest().dec(index, type, id);
+            throw e;
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -284,6 +338,10 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
         try {
             metric.getCurrentIngest().inc(deleteRequest.index(), deleteRequest.type(), deleteRequest.id());
             bulkProcessor.add(deleteRequest);
+        } catch (EsRejectedExecutionException e) {
+            // the request was not accepted
+            metric.getCurrentIngest().dec(deleteRequest.index(), deleteRequest.type(), deleteRequest.id());
+            throw e;
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -302,6 +360,10 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
             UpdateRequest updateRequest = new UpdateRequest().index(index).type(type).id(id).upsert(source);
             updateRequest.putHeader(RELATED_JOB_ID, "1234");
             bulkProcessor.add(updateRequest);
+        } catch (EsRejectedExecutionException e) {
+            // the request was not accepted
+            metric.getCurrentIngest().dec(index, type, id);
+            throw e;
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -318,6 +380,10 @@ public class BulkTransportClient extends BaseMetricTransportClient implements Cl
         try {
             metric.getCurrentIngest().inc(updateRequest.index(), updateRequest.type(), updateRequest.id());
             bulkProcessor.add(updateRequest);
+        } catch (EsRejectedExecutionException e) {
+            // the request was not accepted
+            metric.getCurrentIngest().dec(updateRequest.index(), updateRequest.type(), updateRequest.id());
+            throw e;
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of growable byte buffers. Released buffers keep their capacity, so a long running producer
+ * does not allocate a new multi-megabyte array for each bulk request.
+ */
+public class BytesBufferPool {
+
+    private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int maxBuffers;
+
+    private final int maxCapacity;
+
+    /**
+     * Create a buffer pool.
+     *
+     * @param maxBuffers  the maximum number of buffers kept in the pool
+     * @param maxCapacity the maximum capacity of a buffer kept in the pool, larger buffers are dropped on release
+     */
+    public BytesBufferPool(int maxBuffers, int maxCapacity) {
+        this.maxBuffers = maxBuffers;
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * Take a buffer from the pool, or create a new one if the pool is empty.
+     *
+     * @return an empty buffer
+     */
+    public Buffer acquire() {
+        Buffer buffer = buffers.poll();
+        if (buffer == null) {
+            return new Buffer(8192);
+        }
+        size.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. The content of the buffer must not be used afterwards.
+     *
+     * @param buffer the buffer
+     */
+    public void release(Buffer buffer) {
+        buffer.reset();
+        if (buffer.capacity() <= maxCapacity && size.incrementAndGet() <= maxBuffers) {
+            buffers.offer(buffer);
+        } else {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * A growable byte buffer as an output stream. Closing the stream has no effect.
+     */
+    public static class Buffer extends OutputStream {
+
+        private byte[] bytes;
+
+        private int count;
+
+        Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int capacity() {
+            return bytes.length;
+        }
+
+        public void reset() {
+            count = 0;
+        }
+
+        /**
+         * Discard the content after the given size, e.g. a partially written entry.
+         *
+         * @param size the size to keep
+         */
+        public void truncate(int size) {
+            if (size < 0 || size > count) {
+                throw new IllegalArgumentException("invalid size " + size + ", buffer size is " + count);
+            }
+            count = size;
+        }
+
+        /**
+         * Returns the content of the buffer without copying. The reference is valid until the buffer is
+         * written to, reset, or released.
+         *
+         * @return the content
+         */
+        public BytesReference bytes() {
+            return new BytesArray(bytes, 0, count);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length << 1));
+            }
+        }
+    }
+}
@@ -240,6 +240,8 @@ public interface ClientAPI extends ClientParameters {
      * Bulked update request. Each request will be added to a queue for bulking requests.
      * Submitting request will be done when bulk limits are exceeded.
      * Note that updates only work correctly when all operations between nodes are synchronized!
+     * With the ordered lanes of {@link BulkTransportClient}, enabled by {@link ClientParameters#BULK_ORDERED_LANES},
+     * operations on the same document are executed in the order they were added.
      *
      * @param updateRequest the update request to add
      * @return this ingest
@@ -46,6 +46,11 @@ public final class ClientBuilder implements ClientParameters {
         return this;
     }
 
+    public ClientBuilder put(String key, Boolean value) {
+        settingsBuilder.put(key, value);
+        return this;
+    }
+
     public ClientBuilder put(String key, Integer value) {
         settingsBuilder.put(key, value);
         return this;
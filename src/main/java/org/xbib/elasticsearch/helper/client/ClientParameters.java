@@ -14,6 +14,26 @@ public interface ClientParameters {
 
     TimeValue DEFAULT_FLUSH_INTERVAL = TimeValue.timeValueSeconds(30);
 
+    int DEFAULT_BULK_STRIPES = 0;
+
+    int DEFAULT_MIN_CONCURRENT_REQUESTS = 1;
+
+    ByteSizeValue DEFAULT_MIN_VOLUME_PER_REQUEST = new ByteSizeValue(512, ByteSizeUnit.KB);
+
+    TimeValue DEFAULT_BACK_PRESSURE_TIMEOUT = TimeValue.timeValueSeconds(30);
+
+    int DEFAULT_BULK_MAX_RETRIES = 0;
+
+    TimeValue DEFAULT_BULK_RETRY_DELAY = TimeValue.timeValueMillis(100);
+
+    TimeValue DEFAULT_BULK_RETRY_MAX_DELAY = TimeValue.timeValueSeconds(10);
+
+    int DEFAULT_BULK_RETRY_BUDGET = 10000;
+
+    int DEFAULT_BULK_BUFFER_POOL_SIZE = 16;
+
+    TimeValue DEFAULT_BULK_PARTITIONING_REFRESH_INTERVAL = TimeValue.timeValueSeconds(30);
+
     String MAX_ACTIONS_PER_REQUEST = "max_actions_per_request";
 
     String MAX_CONCURRENT_REQUESTS = "max_concurrent_requests";
@@ -22,4 +42,40 @@ public interface ClientParameters {
 
     String FLUSH_INTERVAL = "flush_interval";
 
+    String BULK_STRIPES = "bulk_stripes";
+
+    String ADAPTIVE_CONCURRENCY = "adaptive_concurrency";
+
+    String MIN_CONCURRENT_REQUESTS = "min_concurrent_requests";
+
+    String TARGET_LATENCY_PER_REQUEST = "target_latency_per_request";
+
+    String MIN_VOLUME_PER_REQUEST = "min_volume_per_request";
+
+    String MAX_IN_FLIGHT_VOLUME = "max_in_flight_volume";
+
+    String BACK_PRESSURE_MODE = "back_pressure_mode";
+
+    String BACK_PRESSURE_TIMEOUT = "back_pressure_timeout";
+
+    String BULK_MAX_RETRIES = "bulk_max_retries";
+
+    String BULK_RETRY_DELAY = "bulk_retry_delay";
+
+    String BULK_RETRY_MAX_DELAY = "bulk_retry_max_delay";
+
+    String BULK_RETRY_BUDGET = "bulk_retry_budget";
+
+    String BULK_PRESERIALIZE = "bulk_preserialize";
+
+    String BULK_BUFFER_POOL_SIZE = "bulk_buffer_pool_size";
+
+    String BULK_PARTITIONING = "bulk_partitioning";
+
+    String BULK_PARTITIONING_REFRESH_INTERVAL = "bulk_partitioning_refresh_interval";
+
+    String BULK_ORDERED_LANES = "bulk_ordered_lanes";
+
+    String INGEST_COMPRESS = "ingest_compress";
+
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A limiter for the number of concurrent bulk or ingest requests.
+ *
+ * With a fixed limit, the limiter behaves like a semaphore. In adaptive mode, the limit follows an
+ * additive increase/multiplicative decrease scheme: each round trip that completes within a tolerance of the
+ * minimum observed round trip time raises the limit by one per limit window, while a rejection or a round trip
+ * time beyond the tolerance reduces the limit by the backoff ratio. The limit always stays between the
+ * configured minimum and maximum.
+ */
+public class ConcurrencyLimiter {
+
+    private static final int MIN_RTT_WINDOW = 500;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private final boolean adaptive;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final double tolerance;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long minRttNanos = Long.MAX_VALUE;
+
+    private long windowMinRttNanos = Long.MAX_VALUE;
+
+    private int windowSamples;
+
+    private long lastDecreaseNanos;
+
+    /**
+     * Create a limiter with a fixed limit.
+     *
+     * @param limit the maximum number of concurrent requests
+     */
+    public ConcurrencyLimiter(int limit) {
+        this(false, limit, limit, limit, 1.0d, 1.0d);
+    }
+
+    private ConcurrencyLimiter(boolean adaptive, int initialLimit, int minLimit, int maxLimit,
+                               double backoffRatio, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("invalid limits: min=" + minLimit + " max=" + maxLimit);
+        }
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+    }
+
+    /**
+     * Create an adaptive limiter. The limit is reduced to three quarters on congestion, and congestion is
+     * assumed when a round trip takes more than twice the minimum round trip time.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit     the minimum limit
+     * @param maxLimit     the maximum limit
+     * @return the limiter
+     */
+    public static ConcurrencyLimiter adaptive(int initialLimit, int minLimit, int maxLimit) {
+        return adaptive(initialLimit, minLimit, maxLimit, 0.75d, 2.0d);
+    }
+
+    /**
+     * Create an adaptive limiter.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit     the minimum limit
+     * @param maxLimit     the maximum limit
+     * @param backoffRatio the factor to apply to the limit on congestion, between 0 and 1
+     * @param tolerance    the factor of the minimum round trip time before a round trip is considered as congested
+     * @return the limiter
+     */
+    public static ConcurrencyLimiter adaptive(int initialLimit, int minLimit, int maxLimit,
+                                              double backoffRatio, double tolerance) {
+        if (backoffRatio <= 0.0d || backoffRatio >= 1.0d) {
+            throw new IllegalArgumentException("backoff ratio must be between 0 and 1: " + backoffRatio);
+        }
+        if (tolerance < 1.0d) {
+            throw new IllegalArgumentException("tolerance must not be less than 1: " + tolerance);
+        }
+        return new ConcurrencyLimiter(true, initialLimit, minLimit, maxLimit, backoffRatio, tolerance);
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the current limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests currently in flight.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a request may be executed.
+     *
+     * @throws InterruptedException if wait was interrupted
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                changed.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the given time until a request may be executed.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the time unit of the timeout
+     * @return true if the request may be executed, false if the waiting time elapsed
+     * @throws InterruptedException if wait was interrupted
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request without a round trip sample, e.g. if the request could not be sent.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request and adjust the limit by the round trip.
+     *
+     * @param rttNanos the round trip time of the request in nanoseconds
+     * @param rejected true if the request or part of the request was rejected by the cluster
+     */
+    public void release(long rttNanos, boolean rejected) {
+        lock.lock();
+        try {
+            if (adaptive) {
+                sample(rttNanos, rejected);
+            }
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until all requests in flight are released.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the time unit of the timeout
+     * @return true if no request is in flight, false if the waiting time elapsed
+     * @throws InterruptedException if wait was interrupted
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight > 0) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rttNanos, boolean rejected) {
+        long now = System.nanoTime();
+        if (rttNanos > 0L) {
+            windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+            if (++windowSamples >= MIN_RTT_WINDOW) {
+                // forget old minimums, the cluster may have changed
+                minRttNanos = windowMinRttNanos;
+                windowMinRttNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+        }
+        boolean congested = rejected || (minRttNanos != Long.MAX_VALUE && rttNanos > minRttNanos * tolerance);
+        if (congested) {
+            // decrease at most once per minimum round trip, responses of the same congestion phase arrive together
+            if (minRttNanos == Long.MAX_VALUE || now - lastDecreaseNanos > minRttNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+            }
+        } else if (inFlight >= (int) limit) {
+            // only grow while the limit is actually used
+            limit = Math.min(maxLimit, limit + 1.0d / limit);
+        }
+    }
+
+    /**
+     * Check if a failure is a rejection by a thread pool of the cluster.
+     *
+     * @param t the failure
+     * @return true if rejected
+     */
+    public static boolean isRejection(Throwable t) {
+        return ExceptionsHelper.unwrapCause(t) instanceof EsRejectedExecutionException;
+    }
+
+    /**
+     * Check if a bulk response contains items that were rejected by a thread pool of the cluster.
+     *
+     * @param response the bulk response
+     * @return true if at least one item was rejected
+     */
+    public static boolean hasRejections(BulkResponse response) {
+        if (!response.hasFailures()) {
+            return false;
+        }
+        for (BulkItemResponse itemResponse : response.getItems()) {
+            if (itemResponse.isFailed() && itemResponse.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "[limit=" + (int) limit + ",inFlight=" + inFlight + ",adaptive=" + adaptive + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
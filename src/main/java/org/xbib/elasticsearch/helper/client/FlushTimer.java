@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer for the periodic flushes of bulk and ingest processors.
+ *
+ * All processors of a JVM share a single hashed wheel timer thread, so thousands of processors do not need
+ * thousands of scheduler threads. The timer thread only dispatches, flushes run on the executor given at
+ * registration, because a flush may wait for a permit of a concurrency limiter. Flushes of the same
+ * registration never overlap, the next flush is scheduled after the previous one has completed.
+ */
+public class FlushTimer implements Closeable {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(FlushTimer.class.getName());
+
+    private final HashedWheelTimer timer;
+
+    /**
+     * Create a flush timer.
+     *
+     * @param tickDuration  the duration between ticks, which is the precision of the timer
+     * @param ticksPerWheel the size of the wheel
+     */
+    public FlushTimer(TimeValue tickDuration, int ticksPerWheel) {
+        this.timer = new HashedWheelTimer(EsExecutors.daemonThreadFactory("flush_timer"),
+                tickDuration.millis(), TimeUnit.MILLISECONDS, ticksPerWheel);
+    }
+
+    /**
+     * Returns the flush timer shared by all processors. The timer thread is a daemon thread and is started
+     * when the first flush is registered.
+     *
+     * @return the shared flush timer
+     */
+    public static FlushTimer shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Register a task which is executed with a fixed delay.
+     *
+     * @param task     the task
+     * @param interval the delay between the end of an execution and the start of the next one
+     * @param executor the executor for the task, or null to execute the task on the timer thread, which is
+     *                 only acceptable for tasks that never block
+     * @return the registration, for cancelling the task
+     */
+    public Registration register(Runnable task, TimeValue interval, @Nullable Executor executor) {
+        if (interval.millis() <= 0L) {
+            throw new IllegalArgumentException("flush interval must be positive: " + interval);
+        }
+        Registration registration = new Registration(task, interval.millis(), executor);
+        registration.schedule();
+        return registration;
+    }
+
+    /**
+     * Stop the timer. Registered tasks are not executed anymore. The shared timer must not be closed.
+     */
+    @Override
+    public void close() {
+        timer.stop();
+    }
+
+    private static class Holder {
+        private static final FlushTimer INSTANCE = new FlushTimer(TimeValue.timeValueMillis(100), 512);
+    }
+
+    /**
+     * A registered task.
+     */
+    public class Registration implements TimerTask, Runnable {
+
+        private final Runnable task;
+
+        private final long intervalMillis;
+
+        private final Executor executor;
+
+        private volatile Timeout timeout;
+
+        private volatile boolean cancelled;
+
+        Registration(Runnable task, long intervalMillis, Executor executor) {
+            this.task = task;
+            this.intervalMillis = intervalMillis;
+            this.executor = executor;
+        }
+
+        /**
+         * Cancel the task. An execution which is already running is not interrupted.
+         */
+        public void cancel() {
+            cancelled = true;
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (cancelled) {
+                return;
+            }
+            if (executor == null) {
+                run();
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the executor is shut down, e.g. because the client was closed
+                logger.debug("flush rejected, cancelling", e);
+                cancelled = true;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!cancelled) {
+                    task.run();
+                }
+            } catch (Throwable t) {
+                logger.warn("flush failed", t);
+            } finally {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (!cancelled) {
+                try {
+                    timeout = timer.newTimeout(this, intervalMillis, TimeUnit.MILLISECONDS);
+                } catch (IllegalStateException e) {
+                    // the timer is stopped
+                    cancelled = true;
+                }
+            }
+        }
+    }
+}
@@ -55,6 +55,10 @@ public interface IngestMetric {
 
     Map<String, Long> getStopBulkRefreshIntervals();
 
+    long getEffectiveBulkSize();
+
+    void setEffectiveBulkSize(long bulkSize);
+
     AcknowledgeMetric getAcknowledgeMetric();
 
     void setAcknowledgeMetric(AcknowledgeMetric acknowledgeMetric);
@@ -9,15 +9,11 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.xbib.elasticsearch.action.ingest.IngestAction;
+import org.xbib.elasticsearch.action.ingest.IngestActionFailure;
 import org.xbib.elasticsearch.action.ingest.IngestRequest;
 import org.xbib.elasticsearch.action.ingest.IngestResponse;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -31,7 +27,7 @@ public class IngestProcessor {
 
     private ByteSizeValue maxVolume = ClientAPI.DEFAULT_MAX_VOLUME_PER_REQUEST;
 
-    private Semaphore semaphore = new Semaphore(maxConcurrency);
+    private ConcurrencyLimiter limiter = new ConcurrencyLimiter(maxConcurrency);
 
     private AtomicLong ingestId = new AtomicLong(0L);
 
@@ -39,9 +35,11 @@ public class IngestProcessor {
 
     private IngestListener ingestListener;
 
-    private ScheduledThreadPoolExecutor scheduler;
+    private BulkSizePolicy bulkSizePolicy;
 
-    private ScheduledFuture<?> scheduledFuture;
+    private FlushTimer flushTimer = FlushTimer.shared();
+
+    private FlushTimer.Registration flushRegistration;
 
     private volatile boolean closed = false;
 
@@ -51,12 +49,32 @@ public class IngestProcessor {
 
     public IngestProcessor maxConcurrentRequests(int concurrency) {
         this.maxConcurrency = Math.min(Math.abs(concurrency < 1 ? 1 : concurrency), 256);
-        this.semaphore = new Semaphore(this.maxConcurrency);
+        this.limiter = new ConcurrencyLimiter(this.maxConcurrency);
+        return this;
+    }
+
+    /**
+     * Enable an adaptive number of concurrent requests. The limit starts at the maximum number of concurrent requests
+     * and is adjusted between the given bounds by the round trip times of the ingest requests and by rejections
+     * of the cluster.
+     *
+     * @param minConcurrency the minimum number of concurrent requests
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return this processor
+     */
+    public IngestProcessor adaptiveConcurrentRequests(int minConcurrency, int maxConcurrency) {
+        int max = Math.min(maxConcurrency < 1 ? 1 : maxConcurrency, 256);
+        int min = Math.min(minConcurrency < 1 ? 1 : minConcurrency, max);
+        this.limiter = ConcurrencyLimiter.adaptive(this.maxConcurrency, min, max);
         return this;
     }
 
     public int getConcurrency() {
-        return maxConcurrency - semaphore.availablePermits();
+        return limiter.getInFlight();
+    }
+
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
     }
 
     public IngestProcessor maxActions(int actions) {
@@ -70,22 +88,61 @@ public class IngestProcessor {
     }
 
 
-    public IngestProcessor flushInterval(TimeValue flushInterval) {
+    /**
+     * Set a policy which adjusts the flush threshold in bytes at runtime. If set, requests are flushed by
+     * the volume given by the policy instead of the maximum number of actions or the maximum volume.
+     *
+     * @param bulkSizePolicy the bulk size policy
+     * @return this processor
+     */
+    public IngestProcessor bulkSizePolicy(BulkSizePolicy bulkSizePolicy) {
+        this.bulkSizePolicy = bulkSizePolicy;
+        return this;
+    }
+
+    /**
+     * Returns the current flush threshold in bytes.
+     *
+     * @return the flush threshold in bytes
+     */
+    public long getBulkSize() {
+        return bulkSizePolicy != null ? bulkSizePolicy.getBulkSize() : maxVolume.bytes();
+    }
+
+    /**
+     * Set the timer for the flush interval. Defaults to the timer shared by all processors.
+     * Must be set before the flush interval.
+     *
+     * @param flushTimer the flush timer
+     * @return this processor
+     */
+    public IngestProcessor flushTimer(FlushTimer flushTimer) {
+        this.flushTimer = flushTimer;
+        return this;
+    }
+
+    public synchronized IngestProcessor flushInterval(TimeValue flushInterval) {
         if (flushInterval != null && flushInterval.getMillis() > 0L) {
-            if (scheduler != null) {
-                scheduler.shutdown();
-            }
-            scheduler = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, EsExecutors.daemonThreadFactory((client).settings(), "ingest_processor"));
-            scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
-            scheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-            if (scheduledFuture != null) {
-                scheduledFuture.cancel(false);
+            if (flushRegistration != null) {
+                flushRegistration.cancel();
             }
-            scheduledFuture = scheduler.scheduleWithFixedDelay(new FlushHelper(), flushInterval.millis(), flushInterval.millis(), TimeUnit.MILLISECONDS);
+            flushRegistration = flushTimer.register(new FlushHelper(), flushInterval, client.threadPool().generic());
         }
         return this;
     }
 
+    /**
+     * Compress the document sources of the ingest requests on the wire, on each hop from the client
+     * to the replicas.
+     *
+     * @param compress true if sources should be compressed
+     * @return this processor
+     */
+    public IngestProcessor compress(boolean compress) {
+        ingestRequest.compress(compress);
+        return this;
+    }
+
     public IngestProcessor ingestId(long ingestId) {
         this.ingestId = new AtomicLong(ingestId);
         return this;
@@ -126,6 +183,22 @@ public class IngestProcessor {
         return this;
     }
 
+    /**
+     * Execute a complete ingest request with its own listener, bypassing the actions collected in this processor.
+     * The call blocks while the maximum number of concurrent requests is reached.
+     *
+     * @param request        the ingest request
+     * @param ingestListener the listener
+     * @return this processor
+     */
+    public IngestProcessor execute(IngestRequest request, IngestListener ingestListener) {
+        if (closed) {
+            throw new IllegalStateException("processor already closed");
+        }
+        process(request, ingestListener);
+        return this;
+    }
+
     /**
      * Closes the processor. If flushing by time is enabled, then it is shut down.
      * Any remaining ingest actions are flushed.
@@ -137,11 +210,12 @@ public class IngestProcessor {
             throw new IllegalStateException("processor already closed");
         }
         closed = true;
-        if (scheduledFuture != null) {
-            scheduledFuture.cancel(false);
-        }
         // do not automatically flush
-        scheduler.shutdown();
+        synchronized (this) {
+            if (flushRegistration != null) {
+                flushRegistration.cancel();
+            }
+        }
         // flush manually but do not wait for responses
         flush();
     }
@@ -163,12 +237,7 @@ public class IngestProcessor {
      * @throws InterruptedException if wait is interrupted
      */
     public boolean waitForResponses(TimeValue maxWait) throws InterruptedException {
-        if (maxConcurrency - semaphore.availablePermits() > 0) {
-            semaphore.tryAcquire(maxConcurrency, maxWait.getMillis(), TimeUnit.MILLISECONDS);
-            return semaphore.availablePermits() == maxConcurrency;
-        } else {
-            return true;
-        }
+        return limiter.awaitIdle(maxWait.getMillis(), TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -181,7 +250,12 @@ public class IngestProcessor {
         if (closed) {
             throw new IllegalStateException("processor already closed");
         }
-        if (actions > 0) {
+        if (bulkSizePolicy != null) {
+            if (ingestRequest.numberOfActions() > 0
+                    && ingestRequest.estimatedSizeInBytes() >= bulkSizePolicy.getBulkSize()) {
+                process(ingestRequest.takeAll(), ingestListener);
+            }
+        } else if (actions > 0) {
             while (ingestRequest.numberOfActions() >= actions) {
                 process(ingestRequest.take(actions), ingestListener);
             }
@@ -205,40 +279,63 @@ public class IngestProcessor {
             return;
         }
         request.ingestId(ingestId.incrementAndGet());
+        final ConcurrencyLimiter limiter = this.limiter;
+        boolean acquired = false;
         boolean done = false;
         try {
-            semaphore.acquire();
-            ingestListener.onRequest(maxConcurrency - semaphore.availablePermits(), request);
+            limiter.acquire();
+            acquired = true;
+            ingestListener.onRequest(limiter.getInFlight(), request);
+            final long startNanos = System.nanoTime();
             client.execute(IngestAction.INSTANCE, request, new ActionListener<IngestResponse>() {
                 @Override
                 public void onResponse(IngestResponse response) {
                     try {
-                        ingestListener.onResponse(maxConcurrency - semaphore.availablePermits(), response);
+                        if (bulkSizePolicy != null) {
+                            bulkSizePolicy.onResponse(request.estimatedSizeInBytes(), response.tookInMillis(),
+                                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                        }
+                        ingestListener.onResponse(limiter.getInFlight(), response);
                     } finally {
-                        semaphore.release();
+                        limiter.release(System.nanoTime() - startNanos, hasRejections(response));
                     }
                 }
 
                 @Override
                 public void onFailure(Throwable e) {
                     try {
-                        ingestListener.onFailure(maxConcurrency - semaphore.availablePermits(), request.ingestId(), e);
+                        ingestListener.onFailure(limiter.getInFlight(), request.ingestId(), e);
                     } finally {
-                        semaphore.release();
+                        limiter.release(System.nanoTime() - startNanos, ConcurrencyLimiter.isRejection(e));
                     }
                 }
             });
             done = true;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            ingestListener.onFailure(maxConcurrency - semaphore.availablePermits(), request.ingestId(), e);
+            ingestListener.onFailure(limiter.getInFlight(), request.ingestId(), e);
         } finally {
-            if (!done) {
-                semaphore.release();
+            if (acquired && !done) {
+                limiter.release();
             }
         }
     }
 
+    /**
+     * Ingest failures are transported as messages only, so rejections are detected by the exception name.
+     *
+     * @param response the ingest response
+     * @return true if at least one failure is a rejection
+     */
+    private static boolean hasRejections(IngestResponse response) {
+        for (IngestActionFailure failure : response.getFailures()) {
+            if (failure.message() != null && failure.message().contains("EsRejectedExecutionException")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * A listener for ingest executions
      */
@@ -274,7 +371,9 @@ public class IngestProcessor {
 
         @Override
         public void run() {
-            flushIfNeeded(ingestListener);
+            if (!closed) {
+                flush();
+            }
         }
     }
 
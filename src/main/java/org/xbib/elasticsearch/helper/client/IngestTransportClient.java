@@ -111,6 +111,7 @@ public class IngestTransportClient extends BaseMetricTransportClient implements
             @Override
             public void onResponse(int concurrency, IngestResponse response) {
                 metric.getCurrentIngest().dec();
+                metric.setEffectiveBulkSize(ingestProcessor.getBulkSize());
                 metric.getSucceeded().inc(response.successSize());
                 metric.getFailed().inc(response.getFailures().size());
                 logger.debug("after ingest [{}] [succeeded={}] [failed={}] [{}ms] [leader={}] [replica={}] [concurrent requests={}]",
@@ -145,7 +146,20 @@ public class IngestTransportClient extends BaseMetricTransportClient implements
                 .maxActions(maxActionsPerRequest)
                 .maxVolumePerRequest(maxVolumePerRequest)
                 .flushInterval(flushInterval)
+                .compress(settings.getAsBoolean(INGEST_COMPRESS, false))
                 .listener(ingestListener);
+        TimeValue targetLatency = settings.getAsTime(TARGET_LATENCY_PER_REQUEST, null);
+        if (targetLatency != null) {
+            ByteSizeValue maxVolume = maxVolumePerRequest != null ? maxVolumePerRequest : DEFAULT_MAX_VOLUME_PER_REQUEST;
+            ingestProcessor.bulkSizePolicy(new BulkSizePolicy(targetLatency,
+                    settings.getAsBytesSize(MIN_VOLUME_PER_REQUEST, DEFAULT_MIN_VOLUME_PER_REQUEST),
+                    maxVolume, maxVolume));
+        }
+        metric.setEffectiveBulkSize(ingestProcessor.getBulkSize());
+        if (settings.getAsBoolean(ADAPTIVE_CONCURRENCY, false)) {
+            ingestProcessor.adaptiveConcurrentRequests(settings.getAsInt(MIN_CONCURRENT_REQUESTS, DEFAULT_MIN_CONCURRENT_REQUESTS),
+                    maxConcurrentRequests);
+        }
         try {
             Collection<InetSocketTransportAddress> addrs = findAddresses(settings);
             if (!connect(addrs, settings.getAsBoolean("autodiscover", false))) {
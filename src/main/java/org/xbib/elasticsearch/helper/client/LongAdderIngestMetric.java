@@ -47,6 +47,8 @@ public class LongAdderIngestMetric implements IngestMetric {
 
     private final Count failed = new CountMetric();
 
+    private volatile long effectiveBulkSize = -1L;
+
     private AcknowledgeMetric acknowledgeMetric;
 
     private Long started;
@@ -145,6 +147,16 @@ public class LongAdderIngestMetric implements IngestMetric {
         return stopBulkRefreshIntervals;
     }
 
+    @Override
+    public long getEffectiveBulkSize() {
+        return effectiveBulkSize;
+    }
+
+    @Override
+    public void setEffectiveBulkSize(long bulkSize) {
+        this.effectiveBulkSize = bulkSize;
+    }
+
     @Override
     public AcknowledgeMetric getAcknowledgeMetric() {
         return acknowledgeMetric;
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.DocumentRequest;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.routing.OperationRouting;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Partitions requests by the shard of the document, or by the node which holds the primary shard of the document,
+ * using the routing of the cluster.
+ *
+ * The cluster state is fetched in the background when the first request is partitioned, and refreshed after the
+ * refresh interval. Until the cluster state is known, and for indices which are not in the cluster state,
+ * e.g. indices which are created by the request, requests are partitioned by index name.
+ * Partition keys are typed, so an index name never collides with a node ID.
+ */
+public class ShardBulkPartitioner implements BulkPartitioner {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(ShardBulkPartitioner.class.getName());
+
+    private final static Key UNPARTITIONED = new Key(Key.NONE, "");
+
+    private final Client client;
+
+    private final boolean byNode;
+
+    private final long refreshIntervalNanos;
+
+    private final OperationRouting operationRouting;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile ClusterState clusterState;
+
+    private volatile long refreshedNanos;
+
+    /**
+     * Create a shard partitioner.
+     *
+     * @param client          the client for fetching the cluster state
+     * @param byNode          true for partitioning by the node of the primary shard, false for partitioning by shard
+     * @param refreshInterval the interval for refreshing the cluster state
+     */
+    public ShardBulkPartitioner(Client client, boolean byNode, TimeValue refreshInterval) {
+        this.client = client;
+        this.byNode = byNode;
+        this.refreshIntervalNanos = refreshInterval.nanos();
+        this.operationRouting = new OperationRouting(Settings.EMPTY, null);
+    }
+
+    @Override
+    public Object partition(ActionRequest request) {
+        if (!(request instanceof DocumentRequest)) {
+            return UNPARTITIONED;
+        }
+        DocumentRequest<?> documentRequest = (DocumentRequest<?>) request;
+        ClusterState state = clusterState();
+        String index = documentRequest.index();
+        if (state == null || documentRequest.id() == null && documentRequest.routing() == null) {
+            // IDs are generated on the server, any shard of the index is as good as another
+            return new Key(Key.INDEX, index);
+        }
+        try {
+            ShardId shardId = operationRouting.shardId(state, index, documentRequest.type(),
+                    documentRequest.id(), documentRequest.routing());
+            if (byNode) {
+                ShardRouting primary = state.routingTable()
+                        .shardRoutingTable(shardId.getIndex(), shardId.id()).primaryShard();
+                if (primary != null && primary.assignedToNode()) {
+                    return new Key(Key.NODE, primary.currentNodeId());
+                }
+            }
+            return shardId;
+        } catch (Exception e) {
+            // unknown index or alias, or the routing table changed
+            return new Key(Key.INDEX, index);
+        }
+    }
+
+    private ClusterState clusterState() {
+        ClusterState state = clusterState;
+        if ((state == null || System.nanoTime() - refreshedNanos > refreshIntervalNanos)
+                && refreshing.compareAndSet(false, true)) {
+            client.admin().cluster().prepareState().clear()
+                    .setMetaData(true)
+                    .setRoutingTable(true)
+                    .execute(new ActionListener<ClusterStateResponse>() {
+                        @Override
+                        public void onResponse(ClusterStateResponse response) {
+                            clusterState = response.getState();
+                            refreshedNanos = System.nanoTime();
+                            refreshing.set(false);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            logger.warn("unable to refresh cluster state", e);
+                            refreshedNanos = System.nanoTime();
+                            refreshing.set(false);
+                        }
+                    });
+        }
+        return state;
+    }
+
+    /**
+     * A partition key for an index or a node.
+     */
+    private static final class Key {
+
+        private final static int NONE = 0;
+
+        private final static int INDEX = 1;
+
+        private final static int NODE = 2;
+
+        private final int kind;
+
+        private final String name;
+
+        Key(int kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return kind == key.kind && (name != null ? name.equals(key.name) : key.name == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind + (name != null ? name.hashCode() : 0);
+        }
+
+        @Override
+        public String toString() {
+            return (kind == INDEX ? "index " : kind == NODE ? "node " : "") + name;
+        }
+    }
+}
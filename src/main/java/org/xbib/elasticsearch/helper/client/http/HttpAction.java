@@ -11,7 +11,10 @@ import org.elasticsearch.common.ParseFieldMatcher;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
@@ -21,7 +24,10 @@ import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.util.CharsetUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import static org.elasticsearch.action.support.PlainActionFuture.newFuture;
 
@@ -30,10 +36,32 @@ public abstract class HttpAction<Request extends ActionRequest, Response extends
     protected final String actionName;
     protected final ParseFieldMatcher parseFieldMatcher;
 
+    /**
+     * True if request contents are sent gzip compressed.
+     */
+    protected final boolean compress;
+
+    /**
+     * The deflate level for compressed request contents.
+     */
+    protected final int compressionLevel;
+
+    /**
+     * Request contents smaller than this are sent uncompressed.
+     */
+    protected final long compressionThreshold;
+
     protected HttpAction(Settings settings, String actionName) {
         super(settings);
         this.actionName = actionName;
         this.parseFieldMatcher = new ParseFieldMatcher(settings);
+        this.compress = settings.getAsBoolean("http.client.compress", false);
+        this.compressionLevel = settings.getAsInt("http.client.compress.level", 6);
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("http.client.compress.level must be between 1 and 9: " + compressionLevel);
+        }
+        this.compressionThreshold = settings.getAsBytesSize("http.client.compress.threshold",
+                new ByteSizeValue(8, ByteSizeUnit.KB)).bytes();
     }
 
     public final ActionFuture<Response> execute(HttpInvocationContext<Request,Response> httpInvocationContext, Request request) {
@@ -81,9 +109,12 @@ public abstract class HttpAction<Request extends ActionRequest, Response extends
     protected HttpRequest newRequest(HttpMethod method, URL url, String path, ChannelBuffer buffer) {
         HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, path);
         request.headers().add(HttpHeaders.Names.HOST, url.getHost());
-        request.headers().add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
         request.headers().add(HttpHeaders.Names.ACCEPT_ENCODING, HttpHeaders.Values.GZIP);
         if (buffer != null) {
+            if (compress && buffer.readableBytes() >= compressionThreshold) {
+                buffer = gzip(buffer);
+                request.headers().add(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP);
+            }
             request.setContent(buffer);
             int length = request.getContent().readableBytes();
             request.headers().add(HttpHeaders.Names.CONTENT_TYPE, "application/json");
@@ -92,12 +123,41 @@ public abstract class HttpAction<Request extends ActionRequest, Response extends
         return request;
     }
 
+    /**
+     * Compress a request content. Requests are created on the calling thread before a channel is leased, so the
+     * compression never runs on a Netty I/O thread. Composite contents are compressed component by component
+     * without being flattened first.
+     *
+     * @param buffer the content
+     * @return the compressed content
+     */
+    protected ChannelBuffer gzip(ChannelBuffer buffer) {
+        int length = buffer.readableBytes();
+        ChannelBuffer compressed = ChannelBuffers.dynamicBuffer(Math.max(length / 4, 256));
+        try (GZIPOutputStream out = new LeveledGZIPOutputStream(new ChannelBufferOutputStream(compressed), compressionLevel)) {
+            buffer.getBytes(buffer.readerIndex(), out, length);
+        } catch (IOException e) {
+            // can not happen, the output is a memory buffer
+            throw new IllegalStateException(e);
+        }
+        return compressed;
+    }
+
     protected void doExecute(final HttpInvocationContext<Request,Response> httpInvocationContext) {
-        httpInvocationContext.getChannel().write(httpInvocationContext.getHttpRequest());
+        // the pipelining handler of the channel queues the context and writes its request
+        httpInvocationContext.getChannel().write(httpInvocationContext);
     }
 
     protected abstract HttpRequest createHttpRequest(URL base, Request request) throws IOException;
 
     protected abstract Response createResponse(HttpInvocationContext<Request,Response> httpInvocationContext) throws IOException;
 
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+
 }
@@ -13,13 +13,9 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.common.util.concurrent.EsExecutors;
-import org.elasticsearch.common.util.concurrent.FutureUtils;
+import org.xbib.elasticsearch.helper.client.FlushTimer;
 
 import java.io.Closeable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -71,6 +67,7 @@ public class HttpBulkProcessor implements Closeable {
         private int bulkActions = 1000;
         private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
         private TimeValue flushInterval = null;
+        private FlushTimer flushTimer = null;
 
         /**
          * Creates a builder of bulk processor with the client to use and the listener that will be used
@@ -139,12 +136,23 @@ public class HttpBulkProcessor implements Closeable {
             return this;
         }
 
+        /**
+         * Sets the timer for the flush interval. Defaults to the timer shared by all processors.
+         * @param flushTimer the flush timer
+         * @return this builder
+         */
+        public Builder setFlushTimer(FlushTimer flushTimer) {
+            this.flushTimer = flushTimer;
+            return this;
+        }
+
         /**
          * Builds a new bulk processor.
          * @return a HTTP bulk processor
          */
         public HttpBulkProcessor build() {
-            return new HttpBulkProcessor(client, listener, name, concurrentRequests, bulkActions, bulkSize, flushInterval);
+            return new HttpBulkProcessor(client, listener, name, concurrentRequests, bulkActions, bulkSize, flushInterval,
+                    flushTimer != null ? flushTimer : FlushTimer.shared());
         }
     }
 
@@ -164,8 +172,7 @@ public class HttpBulkProcessor implements Closeable {
     private final long bulkSize;
 
     private final Semaphore semaphore;
-    private final ScheduledThreadPoolExecutor scheduler;
-    private final ScheduledFuture scheduledFuture;
+    private final FlushTimer.Registration flushRegistration;
 
     private final AtomicLong executionIdGen = new AtomicLong();
 
@@ -173,7 +180,8 @@ public class HttpBulkProcessor implements Closeable {
 
     private volatile boolean closed = false;
 
-    HttpBulkProcessor(Client client, Listener listener, @Nullable String name, int concurrentRequests, int bulkActions, ByteSizeValue bulkSize, @Nullable TimeValue flushInterval) {
+    HttpBulkProcessor(Client client, Listener listener, @Nullable String name, int concurrentRequests, int bulkActions, ByteSizeValue bulkSize, @Nullable TimeValue flushInterval,
+                      FlushTimer flushTimer) {
         this.client = client;
         this.listener = listener;
         this.concurrentRequests = concurrentRequests;
@@ -184,13 +192,9 @@ public class HttpBulkProcessor implements Closeable {
         this.bulkRequest = new BulkRequest();
 
         if (flushInterval != null) {
-            this.scheduler = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, EsExecutors.daemonThreadFactory(client.settings(), (name != null ? "[" + name + "]" : "") + "bulk_processor"));
-            this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
-            this.scheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-            this.scheduledFuture = this.scheduler.scheduleWithFixedDelay(new Flush(), flushInterval.millis(), flushInterval.millis(), TimeUnit.MILLISECONDS);
+            this.flushRegistration = flushTimer.register(new Flush(), flushInterval, client.threadPool().generic());
         } else {
-            this.scheduler = null;
-            this.scheduledFuture = null;
+            this.flushRegistration = null;
         }
     }
 
@@ -223,9 +227,8 @@ public class HttpBulkProcessor implements Closeable {
             return true;
         }
         closed = true;
-        if (this.scheduledFuture != null) {
-            FutureUtils.cancel(this.scheduledFuture);
-            this.scheduler.shutdown();
+        if (this.flushRegistration != null) {
+            this.flushRegistration.cancel();
         }
         if (bulkRequest.numberOfActions() > 0) {
             execute();
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client.http;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.xbib.elasticsearch.helper.client.FlushTimer;
+
+import java.io.Closeable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded pool of keep-alive channels per host.
+ *
+ * Channels are connected asynchronously, the caller thread never waits for a TCP handshake. A channel which is
+ * released after a response is kept open and handed to the next request for the same host. Channels are checked
+ * for being connected before they are leased, and idle channels are closed after the idle timeout. If the maximum
+ * number of connections to a host is reached, requests are pipelined on the least busy channel, up to a maximum
+ * number of requests in flight per channel. If all channels are busy, requests wait in order until a channel
+ * is released or closed, or until the pool timeout elapsed.
+ */
+public class HttpChannelPool implements Closeable {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(HttpChannelPool.class.getName());
+
+    private final ClientBootstrap bootstrap;
+
+    private final int maxConnections;
+
+    private final int maxPipelined;
+
+    private final long idleTimeoutMillis;
+
+    private final long poolTimeoutNanos;
+
+    private final Map<InetSocketAddress, Host> hosts = new HashMap<>();
+
+    private final FlushTimer.Registration eviction;
+
+    private final FlushTimer.Registration expiry;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a channel pool.
+     *
+     * @param settings  the settings, with the maximum number of connections per host in
+     *                  {@code http.client.maxconnections}, the maximum number of requests in flight per channel
+     *                  in {@code http.client.pipelining}, the idle timeout in {@code http.client.idletimeout},
+     *                  and the maximum time a request waits for a channel in {@code http.client.pooltimeout}
+     * @param bootstrap the bootstrap for connecting channels
+     */
+    public HttpChannelPool(Settings settings, ClientBootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+        this.maxConnections = settings.getAsInt("http.client.maxconnections", 8);
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("http.client.maxconnections must be positive: " + maxConnections);
+        }
+        this.maxPipelined = settings.getAsInt("http.client.pipelining", 4);
+        if (maxPipelined < 1) {
+            throw new IllegalArgumentException("http.client.pipelining must be positive: " + maxPipelined);
+        }
+        TimeValue idleTimeout = settings.getAsTime("http.client.idletimeout", TimeValue.timeValueSeconds(30));
+        this.idleTimeoutMillis = idleTimeout.millis();
+        // the eviction only closes channels, it never blocks, so it can run on the timer thread
+        this.eviction = FlushTimer.shared().register(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, idleTimeout, null);
+        TimeValue poolTimeout = settings.getAsTime("http.client.pooltimeout", TimeValue.timeValueSeconds(30));
+        this.poolTimeoutNanos = poolTimeout.nanos();
+        if (poolTimeoutNanos > 0L) {
+            // waiting requests are failed with a precision of a quarter of the timeout
+            this.expiry = FlushTimer.shared().register(new Runnable() {
+                @Override
+                public void run() {
+                    expireWaiting();
+                }
+            }, TimeValue.timeValueMillis(Math.max(100L, poolTimeout.millis() / 4)), null);
+        } else {
+            this.expiry = null;
+        }
+    }
+
+    /**
+     * Lease a channel to a host for one request. The listener is notified when a connected channel is available,
+     * which may be on a Netty I/O thread. The channel may be leased to other requests at the same time, requests
+     * must be written through the {@link HttpPipeliningHandler} of the channel.
+     *
+     * @param address  the address of the host
+     * @param listener the listener for the channel
+     */
+    public void acquire(InetSocketAddress address, ActionListener<Channel> listener) {
+        if (closed) {
+            listener.onFailure(new IllegalStateException("channel pool is closed"));
+            return;
+        }
+        host(address).acquire(listener);
+    }
+
+    /**
+     * Return a leased channel after the response of a request was received, so it can be reused. A channel
+     * which is no longer connected is dropped.
+     *
+     * @param channel the channel
+     */
+    public void release(Channel channel) {
+        PooledChannel pooledChannel = (PooledChannel) channel.getAttachment();
+        if (pooledChannel == null || closed || !channel.isConnected()) {
+            channel.close();
+            return;
+        }
+        pooledChannel.host.release(pooledChannel);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        eviction.cancel();
+        if (expiry != null) {
+            expiry.cancel();
+        }
+        List<Host> list;
+        synchronized (hosts) {
+            list = new ArrayList<>(hosts.values());
+            hosts.clear();
+        }
+        for (Host host : list) {
+            host.close();
+        }
+    }
+
+    private Host host(InetSocketAddress address) {
+        synchronized (hosts) {
+            Host host = hosts.get(address);
+            if (host == null) {
+                host = new Host(address);
+                hosts.put(address, host);
+            }
+            return host;
+        }
+    }
+
+    private void evictIdle() {
+        List<Host> list;
+        synchronized (hosts) {
+            list = new ArrayList<>(hosts.values());
+        }
+        long now = System.currentTimeMillis();
+        for (Host host : list) {
+            host.evict(now);
+        }
+    }
+
+    private void expireWaiting() {
+        List<Host> list;
+        synchronized (hosts) {
+            list = new ArrayList<>(hosts.values());
+        }
+        long now = System.nanoTime();
+        for (Host host : list) {
+            host.expire(now);
+        }
+    }
+
+    /**
+     * The channels to a single host.
+     */
+    private class Host {
+
+        private final InetSocketAddress address;
+
+        private final List<PooledChannel> channels = new ArrayList<>();
+
+        private final Deque<Waiter> waiting = new ArrayDeque<>();
+
+        private int open;
+
+        Host(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void acquire(ActionListener<Channel> listener) {
+            PooledChannel lease = null;
+            synchronized (this) {
+                PooledChannel leastBusy = null;
+                Iterator<PooledChannel> it = channels.iterator();
+                while (it.hasNext()) {
+                    PooledChannel candidate = it.next();
+                    if (!candidate.channel.isConnected()) {
+                        // the close listener of the channel takes care of the count
+                        it.remove();
+                        candidate.channel.close();
+                        continue;
+                    }
+                    if (leastBusy == null || candidate.inFlight < leastBusy.inFlight) {
+                        leastBusy = candidate;
+                    }
+                }
+                if (leastBusy != null && leastBusy.inFlight == 0) {
+                    lease = leastBusy;
+                } else if (open < maxConnections) {
+                    open++;
+                } else if (leastBusy != null && leastBusy.inFlight < maxPipelined) {
+                    lease = leastBusy;
+                } else {
+                    waiting.add(new Waiter(listener, System.nanoTime() + poolTimeoutNanos));
+                    return;
+                }
+                if (lease != null) {
+                    lease.inFlight++;
+                }
+            }
+            if (lease != null) {
+                listener.onResponse(lease.channel);
+            } else {
+                connect(listener);
+            }
+        }
+
+        void release(PooledChannel pooledChannel) {
+            Waiter waiter;
+            synchronized (this) {
+                waiter = waiting.poll();
+                if (waiter == null) {
+                    if (--pooledChannel.inFlight == 0) {
+                        pooledChannel.idleSince = System.currentTimeMillis();
+                    }
+                    return;
+                }
+            }
+            // the slot of the released request is handed over
+            waiter.listener.onResponse(pooledChannel.channel);
+        }
+
+        void closed(PooledChannel pooledChannel) {
+            Waiter waiter;
+            synchronized (this) {
+                channels.remove(pooledChannel);
+                waiter = replaceConnection();
+            }
+            if (waiter != null) {
+                connect(waiter.listener);
+            }
+        }
+
+        /**
+         * Give up a connection. If a request is waiting, the connection slot is passed on to it.
+         *
+         * @return the waiting request which must connect, or null
+         */
+        private Waiter replaceConnection() {
+            open--;
+            Waiter waiter = closed ? null : waiting.poll();
+            if (waiter != null) {
+                open++;
+            }
+            return waiter;
+        }
+
+        void expire(long now) {
+            List<Waiter> expired = new ArrayList<>();
+            synchronized (this) {
+                // waiting requests are in the order of their deadlines
+                while (!waiting.isEmpty() && now - waiting.peek().deadlineNanos >= 0L) {
+                    expired.add(waiting.poll());
+                }
+            }
+            for (Waiter waiter : expired) {
+                waiter.listener.onFailure(new ElasticsearchTimeoutException("no channel to " + address +
+                        " available within " + TimeValue.timeValueNanos(poolTimeoutNanos)));
+            }
+        }
+
+        void evict(long now) {
+            List<Channel> expired = new ArrayList<>();
+            synchronized (this) {
+                for (PooledChannel pooledChannel : channels) {
+                    if (pooledChannel.inFlight == 0 && now - pooledChannel.idleSince >= idleTimeoutMillis) {
+                        expired.add(pooledChannel.channel);
+                    }
+                }
+            }
+            for (Channel channel : expired) {
+                logger.debug("closing idle channel {}", channel);
+                channel.close();
+            }
+        }
+
+        void close() {
+            List<Channel> list = new ArrayList<>();
+            List<Waiter> waiters;
+            synchronized (this) {
+                for (PooledChannel pooledChannel : channels) {
+                    list.add(pooledChannel.channel);
+                }
+                waiters = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            // requests in flight are failed by the pipelining handler of the channel
+            for (Channel channel : list) {
+                channel.close();
+            }
+            for (Waiter waiter : waiters) {
+                waiter.listener.onFailure(new IllegalStateException("channel pool is closed"));
+            }
+        }
+
+        private void connect(final ActionListener<Channel> listener) {
+            ChannelFuture future = bootstrap.connect(address);
+            final PooledChannel pooledChannel = new PooledChannel(this, future.getChannel());
+            pooledChannel.channel.setAttachment(pooledChannel);
+            future.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        synchronized (Host.this) {
+                            channels.add(pooledChannel);
+                        }
+                        pooledChannel.channel.getCloseFuture().addListener(new ChannelFutureListener() {
+                            @Override
+                            public void operationComplete(ChannelFuture future) throws Exception {
+                                closed(pooledChannel);
+                            }
+                        });
+                        listener.onResponse(pooledChannel.channel);
+                    } else {
+                        Waiter waiter;
+                        synchronized (Host.this) {
+                            waiter = replaceConnection();
+                        }
+                        Throwable cause = future.getCause() != null ? future.getCause() :
+                                new ConnectException("can't connect to " + address);
+                        listener.onFailure(cause);
+                        // the next waiting request tries a connection of its own, and fails if the host is down
+                        if (waiter != null) {
+                            connect(waiter.listener);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static class Waiter {
+
+        private final ActionListener<Channel> listener;
+
+        private final long deadlineNanos;
+
+        Waiter(ActionListener<Channel> listener, long deadlineNanos) {
+            this.listener = listener;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    private static class PooledChannel {
+
+        private final Host host;
+
+        private final Channel channel;
+
+        private int inFlight = 1;
+
+        private long idleSince;
+
+        PooledChannel(Host host, Channel channel) {
+            this.host = host;
+            this.channel = channel;
+        }
+    }
+}
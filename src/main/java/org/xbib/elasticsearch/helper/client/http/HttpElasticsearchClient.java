@@ -5,6 +5,7 @@ import org.elasticsearch.action.Action;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.action.GenericAction;
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsAction;
@@ -23,18 +24,17 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
 import org.jboss.netty.handler.codec.http.HttpClientCodec;
 import org.jboss.netty.handler.codec.http.HttpContentDecompressor;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.elasticsearch.action.admin.indices.create.HttpCreateIndexAction;
 import org.elasticsearch.action.bulk.HttpBulkAction;
@@ -52,8 +52,6 @@ public class HttpElasticsearchClient extends AbstractClient {
 
     final Map<String, ActionEntry> actionMap = Maps.newHashMap();
 
-    final Map<Channel, HttpInvocationContext> contextMap;
-
     static class ActionEntry<Request extends ActionRequest, Response extends ActionResponse> {
         public final GenericAction<Request, Response> action;
         public final HttpAction<Request, Response> httpAction;
@@ -66,6 +64,8 @@ public class HttpElasticsearchClient extends AbstractClient {
 
     ClientBootstrap bootstrap;
 
+    HttpChannelPool channelPool;
+
     URL url;
 
     public static class Builder {
@@ -139,17 +139,20 @@ public class HttpElasticsearchClient extends AbstractClient {
 
     private HttpElasticsearchClient(Settings settings, ThreadPool threadPool, Headers headers, URL url) {
         super(settings, threadPool, headers);
-        this.contextMap = Maps.newHashMap();
         this.bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
                 Executors.newCachedThreadPool(),
                 Executors.newCachedThreadPool()));
         bootstrap.setPipelineFactory(new HttpClientPipelineFactory());
         bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("keepAlive", true);
+        bootstrap.setOption("connectTimeoutMillis", settings.getAsInt("http.client.timeout", 5000));
+        this.channelPool = new HttpChannelPool(settings, bootstrap);
         this.url = url;
     }
 
     @Override
     public void close() {
+        channelPool.close();
         bootstrap.releaseExternalResources();
     }
 
@@ -164,24 +167,34 @@ public class HttpElasticsearchClient extends AbstractClient {
         if (httpAction == null) {
             throw new IllegalStateException("failed to find action [" + action + "] to execute");
         }
+        ActionRequestValidationException validationException = request.validate();
+        if (validationException != null) {
+            // fail before a channel is leased, nothing would be written for an invalid request
+            listener.onFailure(validationException);
+            return;
+        }
         HttpInvocationContext<Request, Response> httpInvocationContext = new HttpInvocationContext(httpAction, listener, new LinkedList<>(), request);
         try {
             httpInvocationContext.httpRequest = httpAction.createHttpRequest(this.url, request);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
+            listener.onFailure(e);
+            return;
         }
-        ChannelFuture future = bootstrap.connect(new InetSocketAddress(url.getHost(), url.getPort()));
-        future.awaitUninterruptibly();
-        if (!future.isSuccess()) {
-            bootstrap.releaseExternalResources();
-            logger.error("can't connect to {}", url);
-        } else {
-            Channel channel = future.getChannel();
-            httpInvocationContext.setChannel(channel);
-            contextMap.put(channel, httpInvocationContext);
-            channel.getConfig().setConnectTimeoutMillis(settings.getAsInt("http.client.timeout", 5000));
-            httpAction.execute(httpInvocationContext, listener);
-        }
+        final HttpInvocationContext<Request, Response> context = httpInvocationContext;
+        channelPool.acquire(new InetSocketAddress(url.getHost(), url.getPort()), new ActionListener<Channel>() {
+            @Override
+            public void onResponse(Channel channel) {
+                context.setChannel(channel);
+                context.getHttpAction().execute(context, context.getListener());
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.error("can't connect to {}", e, url);
+                context.getListener().onFailure(e);
+            }
+        });
     }
 
     @SuppressWarnings("unchecked")
@@ -202,6 +215,7 @@ public class HttpElasticsearchClient extends AbstractClient {
             pipeline.addLast("codec", new HttpClientCodec());
             pipeline.addLast("aggregator", new HttpChunkAggregator(settings.getAsInt("http.client.maxchunksize", 10 * 1024 * 1024)));
             pipeline.addLast("inflater", new HttpContentDecompressor());
+            pipeline.addLast("pipelining", new HttpPipeliningHandler());
             pipeline.addLast("handler", new HttpResponseHandler());
             return pipeline;
         }
@@ -212,38 +226,27 @@ public class HttpElasticsearchClient extends AbstractClient {
         @SuppressWarnings("unchecked")
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            HttpInvocationContext<Request, Response> httpInvocationContext = contextMap.get(ctx.getChannel());
-            if (httpInvocationContext == null) {
-                throw new IllegalStateException("no context for channel?");
-            }
+            HttpInvocationContext<Request, Response> httpInvocationContext = (HttpInvocationContext<Request, Response>) e.getMessage();
+            HttpResponse httpResponse = httpInvocationContext.getHttpResponse();
             try {
-                if (e.getMessage() instanceof HttpResponse) {
-                    HttpResponse httpResponse = (HttpResponse) e.getMessage();
-                    HttpAction<Request, Response> action = httpInvocationContext.getHttpAction();
-                    ActionListener<Response> listener = httpInvocationContext.getListener();
-                    httpInvocationContext.httpResponse = httpResponse;
-                    if (httpResponse.getContent().readable() && listener != null && action != null) {
-                        listener.onResponse(action.createResponse(httpInvocationContext));
+                HttpAction<Request, Response> action = httpInvocationContext.getHttpAction();
+                ActionListener<Response> listener = httpInvocationContext.getListener();
+                if (httpResponse.getContent().readable() && listener != null && action != null) {
+                    Response response;
+                    try {
+                        response = action.createResponse(httpInvocationContext);
+                    } catch (IOException ex) {
+                        listener.onFailure(ex);
+                        return;
                     }
+                    listener.onResponse(response);
                 }
             } finally {
-                ctx.getChannel().close();
-                contextMap.remove(ctx.getChannel());
-            }
-        }
-
-        @SuppressWarnings("unchecked")
-        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
-            HttpInvocationContext<Request, Response> httpInvocationContext = contextMap.get(ctx.getChannel());
-            try {
-                if (httpInvocationContext != null && httpInvocationContext.getListener() != null) {
-                    httpInvocationContext.getListener().onFailure(e.getCause());
+                if (HttpHeaders.isKeepAlive(httpResponse)) {
+                    channelPool.release(ctx.getChannel());
                 } else {
-                    logger.error(e.getCause().getMessage(), e.getCause());
+                    ctx.getChannel().close();
                 }
-            } finally {
-                ctx.getChannel().close();
-                contextMap.remove(ctx.getChannel());
             }
         }
     }
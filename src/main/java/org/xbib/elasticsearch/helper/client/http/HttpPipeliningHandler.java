@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.helper.client.http;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Correlates HTTP/1.1 pipelined requests and responses on a channel.
+ *
+ * Invocation contexts are written to the channel, the handler keeps them in a FIFO and forwards their HTTP requests.
+ * The server answers pipelined requests in order, so each response belongs to the oldest pending context, which
+ * is passed upstream with the response set. If the channel fails or is closed, all pending contexts are failed.
+ * There is one handler per channel.
+ */
+public class HttpPipeliningHandler extends SimpleChannelHandler {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(HttpPipeliningHandler.class.getName());
+
+    private final Deque<HttpInvocationContext> pending = new ArrayDeque<>();
+
+    private Throwable cause;
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof HttpInvocationContext)) {
+            super.writeRequested(ctx, e);
+            return;
+        }
+        HttpInvocationContext context = (HttpInvocationContext) e.getMessage();
+        synchronized (this) {
+            // checked under the lock, so a context is either failed here or on channel close, never lost
+            if (ctx.getChannel().isConnected()) {
+                // the request must be forwarded under the lock, the order of writes is the order of responses
+                pending.add(context);
+                Channels.write(ctx, e.getFuture(), context.getHttpRequest(), e.getRemoteAddress());
+                return;
+            }
+        }
+        ClosedChannelException closed = new ClosedChannelException();
+        e.getFuture().setFailure(closed);
+        fail(context, closed);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof HttpResponse)) {
+            super.messageReceived(ctx, e);
+            return;
+        }
+        HttpInvocationContext context;
+        synchronized (this) {
+            context = pending.poll();
+        }
+        if (context == null) {
+            throw new IllegalStateException("response without pending request on channel " + ctx.getChannel());
+        }
+        context.httpResponse = (HttpResponse) e.getMessage();
+        Channels.fireMessageReceived(ctx, context, e.getRemoteAddress());
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        logger.error(e.getCause().getMessage(), e.getCause());
+        synchronized (this) {
+            if (cause == null) {
+                cause = e.getCause();
+            }
+        }
+        // responses can not be correlated anymore after a failure
+        ctx.getChannel().close();
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        List<HttpInvocationContext> contexts;
+        Throwable failure;
+        synchronized (this) {
+            contexts = new ArrayList<>(pending);
+            pending.clear();
+            failure = cause;
+        }
+        if (failure == null) {
+            failure = new ClosedChannelException();
+        }
+        for (HttpInvocationContext context : contexts) {
+            fail(context, failure);
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    private static void fail(HttpInvocationContext context, Throwable t) {
+        ActionListener listener = context.getListener();
+        if (listener != null) {
+            listener.onFailure(t);
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package org.xbib.elasticsearch.plugin.helper;
 
 import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.rest.RestModule;
 import org.xbib.elasticsearch.action.ingest.IngestAction;
@@ -24,6 +26,12 @@ import org.xbib.elasticsearch.rest.action.ingest.RestIngestAction;
 
 public class HelperPlugin extends Plugin {
 
+    private final Settings settings;
+
+    public HelperPlugin(Settings settings) {
+        this.settings = settings;
+    }
+
     @Override
     public String name() {
         return "helper";
@@ -34,6 +42,26 @@ public class HelperPlugin extends Plugin {
         return "Helper plugin";
     }
 
+    /**
+     * Register the fixed thread pool for the leader and replica shard operations of the ingest action, so ingest
+     * does not compete with bulk and search. The pool is configured with the usual thread pool settings, e.g.
+     * {@code threadpool.ingest_helper.size} and {@code threadpool.ingest_helper.queue_size}, and its active,
+     * queue and rejected counts are reported in the thread pool section of the node stats.
+     *
+     * @return the default settings of the thread pool
+     */
+    @Override
+    public Settings additionalSettings() {
+        if ("transport".equals(settings.get("client.type"))) {
+            return Settings.EMPTY;
+        }
+        String prefix = "threadpool." + IngestAction.EXECUTOR + ".";
+        return Settings.settingsBuilder()
+                .put(prefix + "type", "fixed")
+                .put(prefix + "size", EsExecutors.boundedNumberOfProcessors(settings))
+                .put(prefix + "queue_size", 200)
+                .build();
+    }
 
     public void onModule(ActionModule module) {
         module.registerAction(IngestAction.INSTANCE, TransportIngestAction.class);
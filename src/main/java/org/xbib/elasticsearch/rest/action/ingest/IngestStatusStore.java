@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.rest.action.ingest;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.action.ingest.IngestActionFailure;
+import org.xbib.elasticsearch.action.ingest.IngestRequest;
+import org.xbib.elasticsearch.action.ingest.IngestResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The outcomes of recent ingest requests of this node, keyed by ingest id.
+ *
+ * The store is bounded by a maximum number of entries, and completed entries are evicted after a time to live.
+ * Entries are kept in submission order, so eviction only needs to look at the oldest entries.
+ */
+public class IngestStatusStore implements ToXContent {
+
+    private static final int MAX_FAILURE_MESSAGES = 10;
+
+    private final int maxEntries;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Long, Status> statuses = new LinkedHashMap<>();
+
+    private long submittedRequests;
+
+    private long completedRequests;
+
+    private long failedRequests;
+
+    private long submittedActions;
+
+    private long succeededActions;
+
+    private long failedActions;
+
+    private long evicted;
+
+    /**
+     * Create a status store.
+     *
+     * @param maxEntries the maximum number of ingest requests kept
+     * @param ttl        the time to live of completed ingest requests
+     */
+    public IngestStatusStore(int maxEntries, TimeValue ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.millis();
+    }
+
+    public synchronized void submitted(IngestRequest request) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        Status status = new Status(request.ingestId(), request.numberOfActions(), request.estimatedSizeInBytes(), now);
+        statuses.put(request.ingestId(), status);
+        submittedRequests++;
+        submittedActions += request.numberOfActions();
+        while (statuses.size() > maxEntries) {
+            Iterator<Status> it = statuses.values().iterator();
+            it.next();
+            it.remove();
+            evicted++;
+        }
+    }
+
+    public synchronized void completed(IngestResponse response) {
+        completedRequests++;
+        succeededActions += response.successSize();
+        failedActions += response.getFailures().size();
+        Status status = statuses.get(response.ingestId());
+        if (status != null) {
+            status.completed(response, System.currentTimeMillis());
+        }
+    }
+
+    public synchronized void failed(long ingestId, Throwable failure) {
+        failedRequests++;
+        Status status = statuses.get(ingestId);
+        if (status != null) {
+            failedActions += status.numberOfActions;
+            status.failed(failure, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the status of an ingest request.
+     *
+     * @param ingestId the ingest id
+     * @return the status, or null if the ingest request is unknown or was evicted
+     */
+    public synchronized Status get(long ingestId) {
+        expire(System.currentTimeMillis());
+        return statuses.get(ingestId);
+    }
+
+    private void expire(long now) {
+        Iterator<Status> it = statuses.values().iterator();
+        while (it.hasNext()) {
+            Status status = it.next();
+            if (now - status.submitted < ttlMillis) {
+                // the entries are in submission order
+                break;
+            }
+            if (status.state != State.RUNNING) {
+                it.remove();
+                evicted++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        expire(System.currentTimeMillis());
+        int running = 0;
+        for (Status status : statuses.values()) {
+            if (status.state == State.RUNNING) {
+                running++;
+            }
+        }
+        builder.startObject("requests")
+                .field("submitted", submittedRequests)
+                .field("completed", completedRequests)
+                .field("failed", failedRequests)
+                .field("running", running)
+                .endObject();
+        builder.startObject("actions")
+                .field("submitted", submittedActions)
+                .field("succeeded", succeededActions)
+                .field("failed", failedActions)
+                .endObject();
+        builder.startObject("store")
+                .field("size", statuses.size())
+                .field("max_entries", maxEntries)
+                .field("ttl", TimeValue.timeValueMillis(ttlMillis).toString())
+                .field("evicted", evicted)
+                .endObject();
+        return builder;
+    }
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * The status of an ingest request.
+     */
+    public static class Status implements ToXContent {
+
+        private final long ingestId;
+
+        private final int numberOfActions;
+
+        private final long sizeInBytes;
+
+        private final long submitted;
+
+        private volatile State state = State.RUNNING;
+
+        private long completed;
+
+        private long tookInMillis;
+
+        private int succeeded;
+
+        private int failed;
+
+        private long leaderTookInMillis;
+
+        private int replicaResponses;
+
+        private final List<String> failures = new ArrayList<>();
+
+        Status(long ingestId, int numberOfActions, long sizeInBytes, long submitted) {
+            this.ingestId = ingestId;
+            this.numberOfActions = numberOfActions;
+            this.sizeInBytes = sizeInBytes;
+            this.submitted = submitted;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        synchronized void completed(IngestResponse response, long now) {
+            this.completed = now;
+            this.tookInMillis = response.tookInMillis();
+            this.succeeded = response.successSize();
+            this.failed = response.getFailures().size();
+            if (response.leaderShardResponse() != null) {
+                this.leaderTookInMillis = response.leaderShardResponse().getTookInMillis();
+            }
+            this.replicaResponses = response.replicaShardResponses().size();
+            for (IngestActionFailure failure : response.getFailures()) {
+                if (failures.size() >= MAX_FAILURE_MESSAGES) {
+                    break;
+                }
+                failures.add(failure.message());
+            }
+            this.state = failed > 0 ? State.FAILED : State.COMPLETED;
+        }
+
+        synchronized void failed(Throwable failure, long now) {
+            this.completed = now;
+            this.tookInMillis = now - submitted;
+            this.failed = numberOfActions;
+            this.failures.add(failure.getMessage());
+            this.state = State.FAILED;
+        }
+
+        @Override
+        public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field("id", ingestId)
+                    .field("state", state.name().toLowerCase(Locale.ROOT))
+                    .field("actions", numberOfActions)
+                    .field("bytes", sizeInBytes)
+                    .field("submitted", submitted);
+            if (state != State.RUNNING) {
+                builder.field("completed", completed)
+                        .field("took", tookInMillis)
+                        .field("succeeded", succeeded)
+                        .field("failed", failed)
+                        .field("leader_took", leaderTookInMillis)
+                        .field("replica_responses", replicaResponses);
+                if (!failures.isEmpty()) {
+                    builder.field("failures", failures);
+                }
+            }
+            return builder;
+        }
+    }
+}
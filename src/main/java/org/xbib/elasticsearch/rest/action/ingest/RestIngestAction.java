@@ -16,11 +16,13 @@
 package org.xbib.elasticsearch.rest.action.ingest;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.BytesRestResponse;
@@ -33,14 +35,20 @@ import org.xbib.elasticsearch.action.ingest.IngestRequest;
 import org.xbib.elasticsearch.action.ingest.IngestResponse;
 
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.rest.RestRequest.Method.GET;
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 import static org.elasticsearch.rest.RestRequest.Method.PUT;
 import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
 import static org.elasticsearch.rest.RestStatus.OK;
 
 /**
@@ -51,6 +59,14 @@ import static org.elasticsearch.rest.RestStatus.OK;
  * { "create" : { "_index" : "test", "_type" : "type1", "_id" : "1" }
  * { "type1" : { "field1" : "value1" } }
  * </pre>
+ *
+ * The body is parsed and submitted in chunks of at most {@code action.ingest.maxactions} actions or
+ * {@code action.ingest.maxvolume} bytes. The response lists the ids of the submitted ingest requests.
+ * With {@code wait_for_completion=true}, the response is sent after all ingest requests were answered
+ * and also reports the succeeded and failed actions.
+ *
+ * The outcomes of recent ingest requests can be retrieved with {@code GET /_ingest/{id}}, and the totals of
+ * this node with {@code GET /_ingest/_stats}.
  */
 
 public class RestIngestAction extends BaseRestHandler {
@@ -65,6 +81,12 @@ public class RestIngestAction extends BaseRestHandler {
      */
     private final IngestProcessor ingestProcessor;
 
+    private final IngestStatusStore statusStore;
+
+    private final int maxActions;
+
+    private final ByteSizeValue maxVolume;
+
     @Inject
     public RestIngestAction(Settings settings, RestController controller, Client client) {
         super(settings, controller, client);
@@ -75,6 +97,8 @@ public class RestIngestAction extends BaseRestHandler {
         controller.registerHandler(PUT, "/{index}/_ingest", this);
         controller.registerHandler(POST, "/{index}/{type}/_ingest", this);
         controller.registerHandler(PUT, "/{index}/{type}/_ingest", this);
+        controller.registerHandler(GET, "/_ingest/_stats", this);
+        controller.registerHandler(GET, "/_ingest/{id}", this);
 
         int actions = settings.getAsInt("action.ingest.maxactions", 1000);
         int concurrency = settings.getAsInt("action.ingest.maxconcurrency",
@@ -82,6 +106,10 @@ public class RestIngestAction extends BaseRestHandler {
         ByteSizeValue volume = settings.getAsBytesSize("action.ingest.maxvolume",
                 ByteSizeValue.parseBytesSizeValue("10m", "action.ingest.maxvolume"));
 
+        this.statusStore = new IngestStatusStore(settings.getAsInt("action.ingest.status.max_entries", 10000),
+                settings.getAsTime("action.ingest.status.ttl", TimeValue.timeValueHours(1)));
+        this.maxActions = actions;
+        this.maxVolume = volume;
         this.ingestProcessor = new IngestProcessor(client)
                 .maxActions(actions)
                 .maxConcurrentRequests(concurrency)
@@ -90,76 +118,211 @@ public class RestIngestAction extends BaseRestHandler {
 
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
-        final IngestIdHolder idHolder = new IngestIdHolder();
-        final CountDownLatch latch = new CountDownLatch(1);
-        IngestProcessor.IngestListener ingestListener = new IngestProcessor.IngestListener() {
-            @Override
-            public void onRequest(int concurrency, IngestRequest ingestRequest) {
-                long v = volumeCounter.addAndGet(ingestRequest.estimatedSizeInBytes());
-                if (logger.isDebugEnabled()) {
-                    logger.debug("ingest request [{}] of {} items, {} bytes, {} concurrent requests",
-                            ingestRequest.ingestId(), ingestRequest.numberOfActions(), v, concurrency);
-                }
-                idHolder.ingestId(ingestRequest.ingestId());
-                latch.countDown();
-            }
-
-            @Override
-            public void onResponse(int concurrency, IngestResponse response) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("ingest response [{}] [{} succeeded] [{} failed] [{}ms]",
-                            response.ingestId(),
-                            response.successSize(),
-                            response.getFailures().size(),
-                            response.tookInMillis());
-                }
-                if (!response.getFailures().isEmpty()) {
-                    for (IngestActionFailure f : response.getFailures()) {
-                        logger.error("ingest [{}] failure, reason: {}", response.ingestId(), f.message());
-                    }
+        if (request.method() == GET) {
+            handleStatusRequest(request, channel);
+            return;
+        }
+        final IngestSubmission submission = new IngestSubmission(channel, statusStore,
+                request.paramAsBoolean("wait_for_completion", false));
+        try {
+            // parse and dispatch the body in bounded chunks, the next chunk is parsed after the previous
+            // one was submitted, so only the chunks in flight are held in memory in parsed form
+            BytesReference content = request.content();
+            String defaultIndex = request.param("index");
+            String defaultType = request.param("type");
+            int pos = 0;
+            while (pos < content.length()) {
+                IngestRequest ingestRequest = new IngestRequest();
+                pos = ingestRequest.add(content, pos, defaultIndex, defaultType, maxActions, maxVolume.bytes());
+                if (ingestRequest.numberOfActions() == 0) {
+                    break;
                 }
+                ingestProcessor.execute(ingestRequest, submission);
             }
+            submission.submitted();
+        } catch (Exception e) {
+            submission.fail(e);
+        }
+    }
 
-            @Override
-            public void onFailure(int concurrency, long ingestId, Throwable failure) {
-                logger.error("ingest [{}] error", ingestId, failure);
-            }
-        };
+    private void handleStatusRequest(RestRequest request, RestChannel channel) {
         try {
-            long t0 = System.currentTimeMillis();
-            ingestProcessor.add(request.content(), request.param("index"), request.param("type"), ingestListener);
-            // estimation, should be enough time to wait for an ID
-            boolean b = latch.await(100, TimeUnit.MILLISECONDS);
-            long t1 = System.currentTimeMillis();
             XContentBuilder builder = jsonBuilder();
-            builder.startObject();
-            builder.field("took", t1 - t0);
-            // got ID?
-            if (b) {
-                builder.field("id", idHolder.ingestId());
+            if (request.path().endsWith("/_stats")) {
+                builder.startObject();
+                statusStore.toXContent(builder, request);
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(OK, builder));
+                return;
             }
+            long ingestId;
+            try {
+                ingestId = Long.parseLong(request.param("id"));
+            } catch (NumberFormatException e) {
+                builder.startObject().field("error", "invalid ingest id: " + request.param("id")).endObject();
+                channel.sendResponse(new BytesRestResponse(BAD_REQUEST, builder));
+                return;
+            }
+            IngestStatusStore.Status status = statusStore.get(ingestId);
+            if (status == null) {
+                builder.startObject().field("id", ingestId).field("found", false).endObject();
+                channel.sendResponse(new BytesRestResponse(NOT_FOUND, builder));
+                return;
+            }
+            builder.startObject().field("found", true);
+            status.toXContent(builder, request);
             builder.endObject();
             channel.sendResponse(new BytesRestResponse(OK, builder));
-        } catch (Exception e) {
+        } catch (IOException e) {
+            logger.error("Failed to send response", e);
+        }
+    }
+
+    /**
+     * The ingest requests of a single REST request. The REST response is sent after all chunks were submitted,
+     * or, when waiting for completion, after all of them were answered.
+     */
+    static final class IngestSubmission implements IngestProcessor.IngestListener {
+
+        private static final int MAX_FAILURE_MESSAGES = 100;
+
+        private final RestChannel channel;
+
+        private final IngestStatusStore statusStore;
+
+        private final boolean waitForCompletion;
+
+        private final long t0 = System.currentTimeMillis();
+
+        private final List<Long> ingestIds = Collections.synchronizedList(new ArrayList<Long>());
+
+        private final Set<Long> pending = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+        private final AtomicLong succeeded = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+        private final AtomicBoolean responded = new AtomicBoolean();
+
+        private volatile boolean submitted;
+
+        IngestSubmission(RestChannel channel, IngestStatusStore statusStore, boolean waitForCompletion) {
+            this.channel = channel;
+            this.statusStore = statusStore;
+            this.waitForCompletion = waitForCompletion;
+        }
+
+        @Override
+        public void onRequest(int concurrency, IngestRequest ingestRequest) {
+            long v = volumeCounter.addAndGet(ingestRequest.estimatedSizeInBytes());
+            if (logger.isDebugEnabled()) {
+                logger.debug("ingest request [{}] of {} items, {} bytes, {} concurrent requests",
+                        ingestRequest.ingestId(), ingestRequest.numberOfActions(), v, concurrency);
+            }
+            statusStore.submitted(ingestRequest);
+            ingestIds.add(ingestRequest.ingestId());
+            pending.add(ingestRequest.ingestId());
+        }
+
+        @Override
+        public void onResponse(int concurrency, IngestResponse response) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("ingest response [{}] [{} succeeded] [{} failed] [{}ms]",
+                        response.ingestId(),
+                        response.successSize(),
+                        response.getFailures().size(),
+                        response.tookInMillis());
+            }
+            statusStore.completed(response);
+            succeeded.addAndGet(response.successSize());
+            failed.addAndGet(response.getFailures().size());
+            for (IngestActionFailure f : response.getFailures()) {
+                logger.error("ingest [{}] failure, reason: {}", response.ingestId(), f.message());
+                addFailure(f.message());
+            }
+            done(response.ingestId());
+        }
+
+        @Override
+        public void onFailure(int concurrency, long ingestId, Throwable failure) {
+            logger.error("ingest [{}] error", ingestId, failure);
+            statusStore.failed(ingestId, failure);
+            addFailure(failure.getMessage());
+            done(ingestId);
+        }
+
+        void submitted() {
+            submitted = true;
+            if (!waitForCompletion || pending.isEmpty()) {
+                respond();
+            }
+        }
+
+        void fail(Exception e) {
+            if (!responded.compareAndSet(false, true)) {
+                return;
+            }
             try {
                 XContentBuilder builder = jsonBuilder();
-                builder.startObject().field("error", e.getMessage()).endObject();
+                builder.startObject().field("error", e.getMessage());
+                ids(builder);
+                builder.endObject();
                 channel.sendResponse(new BytesRestResponse(BAD_REQUEST, builder));
             } catch (IOException e1) {
                 logger.error("Failed to send failure response", e1);
             }
         }
-    }
 
-    static final class IngestIdHolder {
-        private long ingestId;
+        private void addFailure(String message) {
+            synchronized (failures) {
+                if (failures.size() < MAX_FAILURE_MESSAGES) {
+                    failures.add(message);
+                }
+            }
+        }
 
-        public void ingestId(long ingestId) {
-            this.ingestId = ingestId;
+        private void done(long ingestId) {
+            // a chunk may be answered before the next chunk is submitted, so the pending set can be empty in
+            // between, the response is sent only after all chunks were submitted
+            if (pending.remove(ingestId) && pending.isEmpty() && submitted && waitForCompletion) {
+                respond();
+            }
         }
 
-        public long ingestId() {
-            return ingestId;
+        private void respond() {
+            if (!responded.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                XContentBuilder builder = jsonBuilder();
+                builder.startObject();
+                builder.field("took", System.currentTimeMillis() - t0);
+                ids(builder);
+                if (waitForCompletion) {
+                    builder.field("succeeded", succeeded.get());
+                    builder.field("failed", failed.get());
+                    synchronized (failures) {
+                        if (!failures.isEmpty()) {
+                            builder.field("failures", failures);
+                        }
+                    }
+                }
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(OK, builder));
+            } catch (IOException e) {
+                logger.error("Failed to send response", e);
+            }
+        }
+
+        private void ids(XContentBuilder builder) throws IOException {
+            synchronized (ingestIds) {
+                if (!ingestIds.isEmpty()) {
+                    builder.field("id", ingestIds.get(0));
+                }
+                builder.field("ids", ingestIds);
+            }
         }
     }
 